@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.file.Files;
+
+// the service started in the background, and was awaited before the tests
+File buildLog = new File(basedir, "build.log");
+String log = new String(Files.readAllBytes(buildLog.toPath()), "UTF-8");
+int started = log.indexOf("ZooKeeper service is starting in the background");
+assert started >= 0
+assert log.indexOf("--- compiler:", started) > started : "Expected the build to go on meanwhile"
+assert log.indexOf("for the ZooKeeper service started in the background") > started
+
+// the server stopped, on both of its ports
+File portsFile = new File(basedir, "target/ports.txt");
+List<String> ports = new ArrayList<>(Files.readAllLines(portsFile.toPath()));
+ports.add("21222");
+for (String port : ports) {
+  try {
+    new Socket("127.0.0.1", Integer.parseInt(port)).close();
+    assert false : "ZooKeeper is still listening on " + port
+  } catch (ConnectException e) {
+    // expected
+  }
+}
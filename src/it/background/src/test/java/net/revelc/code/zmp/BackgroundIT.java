@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.Test;
+
+public class BackgroundIT {
+
+  @Test
+  public void testServiceAwaited() throws Exception {
+    // the properties are only published once the await goal has waited for the service
+    int clientPort = Integer.parseInt(System.getProperty("zmp.actualClientPort"));
+    assertNotEquals(0, clientPort);
+    String connectString = System.getProperty("zookeeper.connect");
+    assertEquals("127.0.0.1:" + clientPort, connectString);
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    try {
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Unable to connect to " + connectString);
+      }
+      assertEquals(Collections.singletonList("zookeeper"), zk.getChildren("/", false));
+    } finally {
+      zk.close();
+    }
+    // for the post-build script to check that the server stopped
+    Files.write(Paths.get("target/ports.txt"), (clientPort + "\n").getBytes(UTF_8));
+  }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.ConnectException;
+import java.net.Socket;
+
+// the server stopped after the tests
+for (int port : new int[] {21202, 21203}) {
+  try {
+    new Socket("127.0.0.1", port).close();
+    assert false : "ZooKeeper is still listening on " + port
+  } catch (ConnectException e) {
+    // expected
+  }
+}
+
+File report = new File(basedir, "target/zmp/bench-report.json");
+assert report.isFile()
+String json = new String(java.nio.file.Files.readAllBytes(report.toPath()), "UTF-8");
+assert json.contains("\"connectString\" : \"127.0.0.1:21203\"")
+assert json.contains("\"errors\" : 0,")
+assert json.contains("\"all\" : {")
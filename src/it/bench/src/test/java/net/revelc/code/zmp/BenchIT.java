@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.Test;
+
+public class BenchIT {
+
+  @Test
+  public void testBenchmarkCleanedUp() throws Exception {
+    String connectString = System.getProperty("zookeeper.connect");
+    assertEquals("127.0.0.1:21203", connectString);
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    try {
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Unable to connect to " + connectString);
+      }
+      // the benchmark deletes its keys, and the nodes it created, once it has run
+      assertNull(zk.exists("/zmp-bench", false));
+    } finally {
+      zk.close();
+    }
+  }
+
+}
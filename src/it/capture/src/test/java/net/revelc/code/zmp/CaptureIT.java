@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.Test;
+
+public class CaptureIT {
+
+  @Test
+  public void testFixturesPresent() throws Exception {
+    String connectString = System.getProperty("zookeeper.connect");
+    assertEquals("127.0.0.1:21233", connectString);
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    try {
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Unable to connect to " + connectString);
+      }
+      // whether loaded, or restored and then only the ephemeral node loaded, the tree is the same
+      assertEquals("some text", new String(zk.getData("/app", false, null), UTF_8));
+      assertEquals("{\"name\":\"app\"}",
+          new String(zk.getData("/app/config", false, null), UTF_8));
+      Stat registration = zk.exists("/registrations/service-a", false);
+      assertNotNull(registration);
+      assertNotEquals(0, registration.getEphemeralOwner());
+    } finally {
+      zk.close();
+    }
+    // the start goal only sets this when it restored captured state, for the post-build script
+    String restored = System.getProperty("zmp.restoredState", "");
+    if (restored.matches("[0-9a-f]+")) {
+      Files.write(Paths.get("target/restored.txt"), restored.getBytes(UTF_8));
+    }
+  }
+
+}
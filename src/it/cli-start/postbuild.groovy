@@ -0,0 +1,30 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.ConnectException;
+import java.net.Socket;
+
+// the stop goal shut the server down
+for (int port : new int[] {21152, 21153}) {
+  try {
+    new Socket("127.0.0.1", port).close();
+    assert false : "ZooKeeper is still listening on " + port
+  } catch (ConnectException e) {
+    // expected
+  }
+}
+
+// the test ran against it in between
+File report = new File(basedir, "target/failsafe-reports/TEST-net.revelc.code.zmp.CliStartIT.xml");
+assert report.isFile()
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.Test;
+
+public class CompactionIT {
+
+  private static final int WRITES = 60;
+
+  @Test
+  public void testEarlierBuildKept() throws Exception {
+    String connectString = System.getProperty("zookeeper.connect");
+    assertEquals("127.0.0.1:21263", connectString);
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    try {
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Unable to connect to " + connectString);
+      }
+      if (zk.exists("/builds", false) == null) {
+        zk.create("/builds", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+      } else {
+        checkCompacted(new File(System.getProperty("zmp.stateDir")));
+      }
+      // the znodes of the earlier build survived its state being compacted
+      List<String> builds = zk.getChildren("/builds", false);
+      Collections.sort(builds);
+      List<String> expected = new ArrayList<>();
+      for (int i = 1; i <= builds.size(); i++) {
+        expected.add("build-" + i);
+        assertArrayEquals(new byte[] {WRITES - 1}, zk.getData("/builds/build-" + i, false, null));
+      }
+      assertEquals(expected, builds);
+      List<String> roots = zk.getChildren("/", false);
+      Collections.sort(roots);
+      assertEquals(Arrays.asList("builds", "zookeeper"), roots);
+
+      // enough transactions for several snapshots
+      String build = "/builds/build-" + (builds.size() + 1);
+      zk.create(build, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+      for (int i = 0; i < WRITES; i++) {
+        zk.setData(build, new byte[] {(byte) i}, -1);
+      }
+    } finally {
+      zk.close();
+    }
+  }
+
+  /**
+   * Only the retained snapshots are left, with the logs which follow the oldest of them, and the
+   * one it was taken during.
+   */
+  private static void checkCompacted(File stateDir) {
+    List<Long> snapshots = zxids(stateDir, "snapshot.");
+    List<Long> logs = zxids(stateDir, "log.");
+    assertEquals(3, snapshots.size(), "Snapshots " + snapshots);
+    long oldest = Collections.min(snapshots);
+    int before = 0;
+    for (long log : logs) {
+      if (log <= oldest) {
+        before++;
+      }
+    }
+    assertTrue(before <= 1, "Logs " + logs + " before snapshots " + snapshots);
+  }
+
+  private static List<Long> zxids(File dir, String prefix) {
+    List<Long> zxids = new ArrayList<>();
+    for (String name : dir.list()) {
+      if (name.startsWith(prefix)) {
+        zxids.add(Long.parseLong(name.substring(prefix.length()), 16));
+      }
+    }
+    return zxids;
+  }
+
+}
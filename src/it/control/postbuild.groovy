@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.ConnectException;
+import java.net.Socket;
+
+// the server stopped after the commands
+for (int port : new int[] {21212, 21213}) {
+  try {
+    new Socket("127.0.0.1", port).close();
+    assert false : "ZooKeeper is still listening on " + port
+  } catch (ConnectException e) {
+    // expected
+  }
+}
+
+// the status counts the znode created by the test, besides the root and ZooKeeper's own
+File buildLog = new File(basedir, "build.log");
+String log = new String(java.nio.file.Files.readAllBytes(buildLog.toPath()), "UTF-8");
+assert log.contains("state=standalone clientPort=21213")
+assert log.contains(" znodes=6 ")
+
+// the snapshot command wrote a snapshot in the data directory, which the stop goal left
+File snapshots = new File(basedir, "target/zmp/127.0.0.1_21213/data/version-2");
+int taken = 0;
+for (String name : snapshots.list()) {
+  File snapshot = new File(snapshots, name);
+  if (name.startsWith("snapshot.") && log.contains("snapshot " + snapshot.getAbsolutePath())) {
+    taken++;
+  }
+}
+assert taken == 1 : "Expected the snapshot the command reported"
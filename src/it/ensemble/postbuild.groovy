@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.file.Files;
+
+// every server stopped after the tests
+for (int port : new int[] {21172, 21173, 21174, 21175, 21176, 21177}) {
+  try {
+    new Socket("127.0.0.1", port).close();
+    assert false : "ZooKeeper is still listening on " + port
+  } catch (ConnectException e) {
+    // expected
+  }
+}
+
+for (int server = 1; server <= 3; server++) {
+  File serverDir = new File(basedir, "target/zmp/127.0.0.1_21175/server." + server);
+  assert new File(serverDir, "data/myid").isFile()
+  assert new File(serverDir, "zkServer.stderr").isFile()
+}
+
+// a peer reports the time it took to join the ensemble instead
+File report = new File(basedir, "target/zmp/127.0.0.1_21175/server.1/conf/startup-report.json");
+String phases = new String(Files.readAllBytes(report.toPath()), "UTF-8");
+assert phases.contains("\"quorumJoin\"") : "Expected a quorumJoin phase in " + phases
+assert !phases.contains("\"serverStartup\"") : "Unexpected serverStartup phase in " + phases
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.Test;
+
+public class EnsembleIT {
+
+  private static final Pattern MODE = Pattern.compile("Mode: (\\w+)");
+
+  static String mode(int port) throws IOException {
+    try (Socket socket = new Socket("127.0.0.1", port)) {
+      OutputStream out = socket.getOutputStream();
+      out.write("srvr".getBytes(UTF_8));
+      out.flush();
+      Matcher m = MODE.matcher(new String(socket.getInputStream().readAllBytes(), UTF_8));
+      return m.find() ? m.group(1) : "unknown";
+    }
+  }
+
+  static ZooKeeper connect(String connectString) throws Exception {
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    if (!connected.await(30, TimeUnit.SECONDS)) {
+      zk.close();
+      throw new IllegalStateException("Unable to connect to " + connectString);
+    }
+    return zk;
+  }
+
+  @Test
+  public void testEnsemble() throws Exception {
+    assertEquals("127.0.0.1:21175,127.0.0.1:21176,127.0.0.1:21177",
+        System.getProperty("zookeeper.connect"));
+    List<String> modes = new ArrayList<>();
+    for (int port = 21175; port <= 21177; port++) {
+      modes.add(mode(port));
+    }
+    Collections.sort(modes);
+    // the last server is the observer
+    assertEquals("observer", mode(21177));
+    assertEquals("[follower, leader, observer]", modes.toString());
+
+    // a write through one server is seen through the others
+    ZooKeeper first = connect("127.0.0.1:21175");
+    try {
+      first.create("/ensemble", "replicated".getBytes(UTF_8), Ids.OPEN_ACL_UNSAFE,
+          CreateMode.PERSISTENT);
+    } finally {
+      first.close();
+    }
+    for (int port = 21176; port <= 21177; port++) {
+      ZooKeeper other = connect("127.0.0.1:" + port);
+      try {
+        other.sync("/ensemble", (rc, path, ctx) -> {}, null);
+        assertEquals("replicated", new String(other.getData("/ensemble", false, null), UTF_8));
+      } finally {
+        other.close();
+      }
+    }
+  }
+
+}
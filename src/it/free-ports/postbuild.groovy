@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.file.Files;
+
+// the server stopped, on both of the ports it selected
+for (String port : Files.readAllLines(new File(basedir, "target/ports.txt").toPath())) {
+  try {
+    new Socket("127.0.0.1", Integer.parseInt(port)).close();
+    assert false : "ZooKeeper is still listening on " + port
+  } catch (ConnectException e) {
+    // expected
+  }
+}
+
+// the second build discarded the directory left by the first, and logged in its own directory
+File zmpDir = new File(basedir, "target/zmp");
+List<File> dirs = new ArrayList<>();
+for (File file : zmpDir.listFiles()) {
+  if (file.getName().startsWith("127.0.0.1_0-")) {
+    dirs.add(file);
+  }
+}
+assert dirs.size() == 1 : "Expected one directory for a service on a free port"
+assert new File(dirs.get(0), "zkServer.stderr").isFile()
+assert new File(dirs.get(0), "data").isDirectory()
+assert !new File(zmpDir, "zkServer.stderr").exists()
+
+// the second build's start discarded the first build's directory, and emptied the trash, deleting
+// both it and what an aborted build left there
+String firstBuildDir = new String(
+    Files.readAllBytes(new File(basedir, "target/first-build-dir.txt").toPath()), "UTF-8");
+assert !new File(zmpDir, firstBuildDir).exists() : "Expected " + firstBuildDir + " to be discarded"
+File trash = new File(zmpDir, ".trash");
+String[] trashed = trash.list();
+String remaining = Arrays.toString(trashed);
+assert trashed == null || trashed.length == 0 : "Expected an empty trash, not " + remaining
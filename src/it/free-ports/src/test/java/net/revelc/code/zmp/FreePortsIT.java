@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.Test;
+
+public class FreePortsIT {
+
+  @Test
+  public void testSelectedPorts() throws Exception {
+    int clientPort = Integer.parseInt(System.getProperty("zmp.actualClientPort"));
+    int shutdownPort = Integer.parseInt(System.getProperty("zmp.actualShutdownPort"));
+    assertNotEquals(0, clientPort);
+    assertNotEquals(0, shutdownPort);
+    String connectString = System.getProperty("zookeeper.connect");
+    assertEquals("127.0.0.1:" + clientPort, connectString);
+
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    try {
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Unable to connect to " + connectString);
+      }
+    } finally {
+      zk.close();
+    }
+    if (!Files.exists(Paths.get("target/ports.txt"))) {
+      // in the first build, leave what a build aborted while deleting would have left in the trash,
+      // for the post-build script to check that the next build's start deleted it
+      Path leftover = Paths.get("target/zmp/.trash/aborted-build/data/version-2");
+      Files.createDirectories(leftover);
+      Files.write(leftover.resolve("log.1"), new byte[1024]);
+      // and the directory of this build's service, which the next build should discard
+      try (Stream<Path> dirs = Files.list(Paths.get("target/zmp"))) {
+        Files.write(Paths.get("target/first-build-dir.txt"), dirs.map(dir -> dir.getFileName()
+            .toString()).filter(name -> name.startsWith("127.0.0.1_0-")).findFirst().get()
+            .getBytes(UTF_8));
+      }
+    }
+    // for the post-build script to check that the server stopped
+    Files.write(Paths.get("target/ports.txt"),
+        (clientPort + "\n" + shutdownPort + "\n").getBytes(UTF_8));
+  }
+
+}
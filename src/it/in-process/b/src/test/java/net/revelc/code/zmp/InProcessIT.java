@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import org.junit.jupiter.api.Test;
+
+public class InProcessIT {
+
+  static String fourLetterWord(int port, String command) throws IOException {
+    try (Socket socket = new Socket("127.0.0.1", port)) {
+      OutputStream out = socket.getOutputStream();
+      out.write(command.getBytes(UTF_8));
+      out.flush();
+      InputStream in = socket.getInputStream();
+      return new String(in.readAllBytes(), UTF_8);
+    }
+  }
+
+  @Test
+  public void testSettingsNotLeaked() throws Exception {
+    // the previous module's server set these in the Maven JVM, and restored them when it stopped;
+    // this one sets ZooKeeper's defaults for a durable server
+    assertNull(System.getProperty("zookeeper.4lw.commands.whitelist"));
+    assertEquals("yes", System.getProperty("zookeeper.forceSync"));
+    assertEquals("65536", System.getProperty("zookeeper.preAllocSize"));
+    assertEquals("100000", System.getProperty("zookeeper.snapCount"));
+    assertTrue(fourLetterWord(21135, "conf").contains("is not in the whitelist"));
+    assertTrue(fourLetterWord(21135, "srvr").contains("Mode: standalone"));
+  }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.file.Files;
+
+// both servers stopped with their modules
+for (int port : new int[] {21133, 21135}) {
+  try {
+    new Socket("127.0.0.1", port).close();
+    assert false : "ZooKeeper is still listening on " + port
+  } catch (ConnectException e) {
+    // expected
+  }
+}
+
+// a standalone server reports the time it took to start serving
+File report = new File(basedir, "a/target/zmp/127.0.0.1_21133/conf/startup-report.json");
+String phases = new String(Files.readAllBytes(report.toPath()), "UTF-8");
+assert phases.contains("\"serverStartup\"") : "Expected a serverStartup phase in " + phases
+assert !phases.contains("\"quorumJoin\"") : "Unexpected quorumJoin phase in " + phases
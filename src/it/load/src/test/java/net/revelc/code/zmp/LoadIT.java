@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.Test;
+
+public class LoadIT {
+
+  @Test
+  public void testFixturesLoaded() throws Exception {
+    String connectString = System.getProperty("zookeeper.connect");
+    assertEquals("127.0.0.1:21163", connectString);
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    try {
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Unable to connect to " + connectString);
+      }
+      assertEquals("some text", new String(zk.getData("/app", false, null), UTF_8));
+      byte[] config = Files.readAllBytes(Paths.get("src/test/resources/config.json"));
+      assertEquals(new String(config, UTF_8),
+          new String(zk.getData("/app/config", false, null), UTF_8));
+      List<String> members = zk.getChildren("/app/members", false);
+      assertEquals(1, members.size());
+      assertTrue(members.get(0).matches("member-\\d{10}"), members.get(0));
+      // the ephemeral node belongs to a session the load goal keeps open until the stop goal
+      Stat registration = zk.exists("/registrations/service-a", false);
+      assertNotNull(registration);
+      assertNotEquals(0, registration.getEphemeralOwner());
+    } finally {
+      zk.close();
+    }
+  }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.Test;
+
+public class SecondNamespaceIT {
+
+  @Test
+  public void testOwnNamespace() throws Exception {
+    // each fork connects to its own namespace, which starts empty
+    assertEquals("127.0.0.1:21253/fork-", System.getProperty("zmp.namespaceConnectString"));
+    String connectString = System.getProperty("zookeeper.connect");
+    assertTrue(connectString.matches("127\\.0\\.0\\.1:21253/fork-[12]"), connectString);
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    try {
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Unable to connect to " + connectString);
+      }
+      assertEquals(Collections.emptyList(), zk.getChildren("/", false));
+      zk.create("/secondnamespaceit", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+      assertNotNull(zk.exists("/secondnamespaceit", false));
+    } finally {
+      zk.close();
+    }
+  }
+
+}
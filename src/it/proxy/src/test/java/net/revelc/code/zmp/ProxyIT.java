@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.Test;
+
+public class ProxyIT {
+
+  static ZooKeeper connect(String connectString) throws Exception {
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    if (!connected.await(30, TimeUnit.SECONDS)) {
+      zk.close();
+      throw new IllegalStateException("Unable to connect to " + connectString);
+    }
+    return zk;
+  }
+
+  static long roundTripMillis(ZooKeeper zk) throws Exception {
+    long start = System.nanoTime();
+    zk.exists("/", false);
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  @Test
+  public void testLatencyAdded() throws Exception {
+    assertEquals("127.0.0.1:21243", System.getProperty("zmp.connectString"));
+    String proxyConnectString = System.getProperty("zookeeper.connect");
+    assertTrue(proxyConnectString.startsWith("127.0.0.1:"), proxyConnectString);
+    int proxyPort = Integer.parseInt(proxyConnectString.substring("127.0.0.1:".length()));
+    assertNotEquals(0, proxyPort);
+    assertNotEquals(21243, proxyPort);
+
+    // the proxy delays each direction of a request by the configured latency
+    ZooKeeper proxied = connect(proxyConnectString);
+    try {
+      long millis = roundTripMillis(proxied);
+      assertTrue(millis >= 200, "Round trip through the proxy took only " + millis + " ms");
+    } finally {
+      proxied.close();
+    }
+    // for the post-build script to check that the proxy stopped with the server
+    Files.write(Paths.get("target/ports.txt"), (proxyPort + "\n").getBytes(UTF_8));
+  }
+
+}
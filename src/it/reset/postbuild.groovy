@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.ConnectException;
+import java.net.Socket;
+
+// the server stopped after the tests
+for (int port : new int[] {21192, 21193}) {
+  try {
+    new Socket("127.0.0.1", port).close();
+    assert false : "ZooKeeper is still listening on " + port
+  } catch (ConnectException e) {
+    // expected
+  }
+}
+
+// the fixtures were loaded, then deleted, before the tests ran
+File buildLog = new File(basedir, "build.log");
+String log = new String(java.nio.file.Files.readAllBytes(buildLog.toPath()), "UTF-8");
+assert log.contains("Loaded 5 znodes")
+assert log.indexOf("Deleted ") > log.indexOf("Loaded 5 znodes")
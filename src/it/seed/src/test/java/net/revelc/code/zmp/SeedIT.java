@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zmp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.Test;
+
+public class SeedIT {
+
+  @Test
+  public void testSeeded() throws Exception {
+    String connectString = System.getProperty("zookeeper.connect");
+    assertEquals("127.0.0.1:21273", connectString);
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk = new ZooKeeper(connectString, 30_000, event -> {
+      if (event.getState() == KeeperState.SyncConnected) {
+        connected.countDown();
+      }
+    });
+    try {
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Unable to connect to " + connectString);
+      }
+      // the znodes loaded by the server which wrote the seed
+      assertEquals("some text", new String(zk.getData("/app", false, null), UTF_8));
+      assertEquals("{\"name\":\"app\"}",
+          new String(zk.getData("/app/config", false, null), UTF_8));
+
+      if (zk.exists("/seeded", false) == null) {
+        // the first build after the seed was written starts with a copy of it
+        checkSeeded(new File(System.getProperty("zmp.seedDir")),
+            new File(System.getProperty("zmp.stateDir")));
+        zk.create("/seeded", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+      } else {
+        // a later build keeps its state, instead of seeding it again, which would lose this
+        assertNotNull(zk.exists("/seeded", false));
+      }
+    } finally {
+      zk.close();
+    }
+  }
+
+  /**
+   * Snapshots are hard-linked to the seed's, which ZooKeeper never changes, but transaction logs,
+   * which it appends to, are copied.
+   */
+  private static void checkSeeded(File seedDir, File stateDir) throws Exception {
+    int snapshots = 0;
+    int logs = 0;
+    for (String name : seedDir.list()) {
+      Object seed = fileKey(new File(seedDir, name));
+      File seeded = new File(stateDir, name);
+      assertTrue(seeded.isFile(), "Expected " + seeded + " to be seeded");
+      if (name.startsWith("snapshot.")) {
+        assertEquals(seed, fileKey(seeded), name + " isn't linked to the seed");
+        snapshots++;
+      } else if (name.startsWith("log.")) {
+        assertNotEquals(seed, fileKey(seeded), name + " is linked to the seed");
+        logs++;
+      }
+    }
+    assertTrue(snapshots > 0 && logs > 0, "Expected a snapshot and a log in " + seedDir);
+  }
+
+  private static Object fileKey(File file) throws Exception {
+    Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    assertNotNull(key, "No file key for " + file);
+    return key;
+  }
+
+}
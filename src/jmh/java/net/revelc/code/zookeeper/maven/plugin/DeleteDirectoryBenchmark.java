@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link AbstractZooKeeperMojo#deleteDirectory(File, String)} on a data directory left
+ * by a long-lived server, laid out like ZooKeeper's, with the given number of files, against
+ * {@link Trash#discard(File, File, String)}, which the start goal waits for instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeleteDirectoryBenchmark {
+
+  @Param({"1000", "10000"})
+  public int files;
+
+  @Param({"4096"})
+  public int fileBytes;
+
+  private File workDir;
+  private File dataDir;
+
+  /**
+   * Create a directory to hold the data directory.
+   */
+  @Setup(Level.Trial)
+  public void createWorkDir() throws IOException {
+    workDir = Files.createTempDirectory(Paths.get("target"), "jmh-delete").toFile();
+    dataDir = new File(workDir, "data");
+  }
+
+  /**
+   * Fill the data directory before each deletion.
+   */
+  @Setup(Level.Invocation)
+  public void populateDataDir() throws IOException {
+    Path version2 = Files.createDirectories(dataDir.toPath().resolve("version-2"));
+    byte[] contents = new byte[fileBytes];
+    for (int i = 0; i < files; i++) {
+      // alternate snapshots and transaction logs, named by zxid as ZooKeeper names them
+      String prefix = i % 2 == 0 ? "snapshot." : "log.";
+      Files.write(version2.resolve(prefix + Long.toHexString(i * 1000L + 1)), contents);
+    }
+  }
+
+  /**
+   * Delete the data directory, as the start goal does before starting a fresh server.
+   */
+  @Benchmark
+  public void deleteDirectory() throws MojoExecutionException {
+    AbstractZooKeeperMojo.deleteDirectory(dataDir, "data");
+  }
+
+  /**
+   * Move the data directory to the trash, leaving it to be deleted in the background.
+   */
+  @Benchmark
+  public void discardDirectory() throws MojoExecutionException {
+    Trash.discard(dataDir, new File(workDir, ".trash"), "data");
+  }
+
+  /**
+   * Wait for any background deletes, so they don't slow down the next invocation.
+   */
+  @TearDown(Level.Invocation)
+  public void awaitTrash() {
+    Trash.await(1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Delete the directory which held the data directory.
+   */
+  @TearDown(Level.Trial)
+  public void deleteWorkDir() throws MojoExecutionException {
+    AbstractZooKeeperMojo.deleteDirectory(workDir, "benchmark");
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the phases of booting and stopping a standalone server with {@link ZooKeeperLauncher}
+ * in an already warm JVM. Compared with {@link StartStopBenchmark}, this separates the time
+ * ZooKeeper itself takes from the cost of starting a JVM or class loader and loading its classes.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(value = 1, jvmArgsAppend = {"-Dorg.slf4j.simpleLogger.defaultLogLevel=warn",
+    "-Dzookeeper.admin.enableServer=false"})
+public class LauncherBenchmark {
+
+  /**
+   * A zoo.cfg for a standalone server with a fresh data directory.
+   */
+  @State(Scope.Thread)
+  public static class Config {
+
+    File workDir;
+    File dataDir;
+    File zooCfg;
+    ZooKeeperLauncher launcher;
+
+    /**
+     * Write the configuration file.
+     */
+    @Setup(Level.Trial)
+    public void writeConfig() throws IOException {
+      workDir = Files.createTempDirectory(Paths.get("target"), "jmh-launcher").toFile();
+      dataDir = new File(workDir, "data");
+      zooCfg = new File(workDir, "zoo.cfg");
+      Properties config = new Properties();
+      config.setProperty("tickTime", "2000");
+      config.setProperty("clientPort", "0");
+      config.setProperty("dataDir", dataDir.getAbsolutePath());
+      try (Writer writer = new OutputStreamWriter(Files.newOutputStream(zooCfg.toPath()), UTF_8)) {
+        config.store(writer, null);
+      }
+    }
+
+    void boot() throws InterruptedException {
+      launcher = new ZooKeeperLauncher(new String[] {"--shutdownPort", "0", "--shutdownString",
+          "shutdown", "--clientPortAddress", "127.0.0.1", "--zoocfg", zooCfg.getAbsolutePath()});
+      launcher.start();
+      if (!launcher.awaitServing(60, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("ZooKeeper did not start serving");
+      }
+    }
+
+    void shutdown() throws InterruptedException {
+      ZooKeeperLauncher running = launcher;
+      launcher = null;
+      running.shutdown();
+      if (!running.awaitShutdown(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("ZooKeeper did not shut down");
+      }
+    }
+
+    /**
+     * Shut down the server, if it is still running, and delete its data directory.
+     */
+    @TearDown(Level.Invocation)
+    public void cleanDataDir() throws InterruptedException, MojoExecutionException {
+      if (launcher != null) {
+        shutdown();
+      }
+      // start each boot from an empty data directory, as the start goal does by default
+      AbstractZooKeeperMojo.deleteDirectory(dataDir, "data");
+    }
+
+    /**
+     * Delete the configuration file and data directory.
+     */
+    @TearDown(Level.Trial)
+    public void deleteWorkDir() throws MojoExecutionException {
+      AbstractZooKeeperMojo.deleteDirectory(workDir, "benchmark");
+    }
+  }
+
+  /**
+   * A running server, to be shut down.
+   */
+  @State(Scope.Thread)
+  public static class Booted extends Config {
+
+    /**
+     * Boot the server before each shutdown.
+     */
+    @Setup(Level.Invocation)
+    public void bootServer() throws InterruptedException {
+      boot();
+    }
+  }
+
+  /**
+   * Parsing the configuration, binding the shutdown port, and booting the server until it is
+   * serving requests.
+   */
+  @Benchmark
+  public void boot(Config config) throws InterruptedException {
+    config.boot();
+  }
+
+  /**
+   * An orderly shutdown, from the request until the server thread has exited.
+   */
+  @Benchmark
+  public void shutdown(Booted booted) throws InterruptedException {
+    booted.shutdown();
+  }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+/**
+ * Runs the {@code start} and {@code stop} goals outside of Maven, configured with their default
+ * parameter values the way Maven would configure them, except that free ports are selected. The
+ * forked or in-process server gets the plugin's own runtime classpath, as it would in a build.
+ */
+final class MojoFixture {
+
+  /**
+   * The file listing the plugin's runtime classpath, written by the {@code jmh} build profile.
+   */
+  static final String LAUNCHER_CLASSPATH_PROPERTY = "zmp.jmh.launcherClasspath";
+
+  private final File workDir;
+  private final boolean fork;
+  private final String durability;
+  private final MavenProject project = new MavenProject();
+  private final PluginDescriptor plugin = new PluginDescriptor();
+
+  MojoFixture(File workDir, boolean fork, String durability) throws IOException {
+    this.workDir = workDir;
+    this.fork = fork;
+    this.durability = durability;
+    project.setFile(new File(workDir, "pom.xml"));
+    plugin.setGroupId("net.revelc.code");
+    plugin.setArtifactId("zookeeper-maven-plugin");
+    try {
+      plugin.setPluginArtifact(artifact(new File(
+          ZooKeeperLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI())));
+    } catch (URISyntaxException e) {
+      throw new IOException("Can't locate the plugin's classes", e);
+    }
+    List<Artifact> artifacts = new ArrayList<>();
+    File classpathFile = new File(
+        System.getProperty(LAUNCHER_CLASSPATH_PROPERTY, "target/jmh/launcher.classpath"));
+    String classpath = new String(Files.readAllBytes(classpathFile.toPath()), UTF_8).trim();
+    for (String path : classpath.split(File.pathSeparator)) {
+      if (!path.isEmpty()) {
+        artifacts.add(artifact(new File(path)));
+      }
+    }
+    plugin.setArtifacts(artifacts);
+  }
+
+  /**
+   * Run the {@code start} goal, returning once the service is serving requests.
+   */
+  void start() throws MojoExecutionException, MojoFailureException {
+    StartZooKeeperMojo mojo = configure(new StartZooKeeperMojo());
+    set(mojo, "tickTime", 2000);
+    set(mojo, "initLimit", 10);
+    set(mojo, "syncLimit", 5);
+    set(mojo, "maxClientCnxns", 100);
+    set(mojo, "startupTimeout", 60);
+    set(mojo, "peerPort", 2888);
+    set(mojo, "electionPort", 3888);
+    set(mojo, "fork", fork);
+    set(mojo, "durability", durability);
+    set(mojo, "resetOnAttach", true);
+    set(mojo, "metricsProvider", "org.apache.zookeeper.metrics.impl.DefaultMetricsProvider");
+    // the report is written after the stop goal returns, so it would race with deleting workDir
+    set(mojo, "metricsReport", false);
+    set(mojo, "classDataSharing", true);
+    set(mojo, "classDataSharingDirectory", new File(workDir, "cds"));
+    // likewise, the console file is written until the forked JVM exits
+    set(mojo, "forkOutput", "none");
+    set(mojo, "forkOutputFileSize", 10485760L);
+    set(mojo, "forkOutputFiles", 3);
+    mojo.execute();
+  }
+
+  /**
+   * Run the {@code stop} goal, returning once the service has confirmed it stopped.
+   */
+  void stop() throws MojoExecutionException, MojoFailureException {
+    StopZooKeeperMojo mojo = configure(new StopZooKeeperMojo());
+    set(mojo, "shutdownWait", 30);
+    mojo.execute();
+  }
+
+  private <T extends AbstractZooKeeperMojo> T configure(T mojo) {
+    mojo.setLog(new DefaultLog(new ConsoleLogger(Logger.LEVEL_WARN, "zmp")));
+    set(mojo, "project", project);
+    set(mojo, "plugin", plugin);
+    set(mojo, "zmpDir", new File(workDir, "zmp"));
+    set(mojo, "clientPortAddress", "127.0.0.1");
+    set(mojo, "clientPort", 0);
+    set(mojo, "servers", 1);
+    set(mojo, "shutdownPort", 0);
+    set(mojo, "shutdownString", "shutdown");
+    return mojo;
+  }
+
+  private static void set(Object mojo, String name, Object value) {
+    for (Class<?> c = mojo.getClass(); c != null; c = c.getSuperclass()) {
+      try {
+        Field field = c.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+        return;
+      } catch (NoSuchFieldException e) {
+        // try the superclass
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    throw new IllegalArgumentException("No parameter " + name + " in " + mojo.getClass());
+  }
+
+  private static Artifact artifact(File file) {
+    Artifact artifact = new DefaultArtifact("jmh", file.getName(), "0", Artifact.SCOPE_RUNTIME,
+        "jar", null, new DefaultArtifactHandler("jar"));
+    artifact.setFile(file);
+    return artifact;
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time the {@code start} goal takes until the service is ready for clients, and the
+ * time the {@code stop} goal takes until the service confirms it has stopped, with a forked or an
+ * in-process server. Each start is a cold start, as it is in a build, so single-shot times are
+ * measured rather than throughput.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class StartStopBenchmark {
+
+  /**
+   * The configuration of the service being started and stopped.
+   */
+  @State(Scope.Thread)
+  public static class Service {
+
+    @Param({"true", "false"})
+    public boolean fork;
+
+    @Param({"durable", "ephemeral"})
+    public String durability;
+
+    MojoFixture fixture;
+    boolean running;
+    private File workDir;
+
+    /**
+     * Create the directory in which the service is configured and run.
+     */
+    @Setup(Level.Trial)
+    public void createFixture() throws IOException {
+      workDir = Files.createTempDirectory(Paths.get("target"), "jmh-start-stop").toFile();
+      fixture = new MojoFixture(workDir, fork, durability);
+    }
+
+    void start() throws MojoExecutionException, MojoFailureException {
+      fixture.start();
+      running = true;
+    }
+
+    void stop() throws MojoExecutionException, MojoFailureException {
+      running = false;
+      fixture.stop();
+    }
+
+    /**
+     * Stop the service, if it is still running, and delete its directory.
+     */
+    @TearDown(Level.Trial)
+    public void deleteWorkDir() throws MojoExecutionException, MojoFailureException {
+      if (running) {
+        stop();
+      }
+      AbstractZooKeeperMojo.deleteDirectory(workDir, "benchmark");
+    }
+  }
+
+  /**
+   * A service which is stopped before each measurement.
+   */
+  @State(Scope.Thread)
+  public static class Stopped extends Service {
+
+    /**
+     * Stop the service after each start.
+     */
+    @TearDown(Level.Invocation)
+    public void stopService() throws MojoExecutionException, MojoFailureException {
+      if (running) {
+        stop();
+      }
+    }
+  }
+
+  /**
+   * A service which is running before each measurement.
+   */
+  @State(Scope.Thread)
+  public static class Running extends Service {
+
+    /**
+     * Start the service before each stop.
+     */
+    @Setup(Level.Invocation)
+    public void startService() throws MojoExecutionException, MojoFailureException {
+      start();
+    }
+  }
+
+  /**
+   * The {@code start} goal's time-to-ready.
+   */
+  @Benchmark
+  public void start(Stopped service) throws MojoExecutionException, MojoFailureException {
+    service.start();
+  }
+
+  /**
+   * The {@code stop} goal's round trip.
+   */
+  @Benchmark
+  public void stop(Running service) throws MojoExecutionException, MojoFailureException {
+    service.stop();
+  }
+
+}
@@ -17,8 +17,17 @@ package net.revelc.code.zookeeper.maven.plugin;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.util.Comparator;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -27,16 +36,76 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
 /**
- * Base class for common code for both Start and Stop Mojos.
+ * Base class for common code for all the Mojos.
  */
 public abstract class AbstractZooKeeperMojo extends AbstractMojo {
 
+  /**
+   * The project property set by the {@code start} goal to the service's client connect string.
+   */
+  static final String CONNECT_STRING_PROPERTY = "zmp.connectString";
+
+  /**
+   * The project property set by the {@code start} goal to the port on which clients connect.
+   */
+  static final String ACTUAL_CLIENT_PORT_PROPERTY = "zmp.actualClientPort";
+
+  /**
+   * The project property set by the {@code start} goal to the port on which the service listens
+   * for the shutdown string.
+   */
+  static final String ACTUAL_SHUTDOWN_PORT_PROPERTY = "zmp.actualShutdownPort";
+
+  /**
+   * The project property set by the {@code start} goal to the key of the captured state it
+   * restored, if any.
+   */
+  static final String RESTORED_STATE_PROPERTY = "zmp.restoredState";
+
+  /**
+   * The project property set by the {@code start} goal to the connect string of its fault
+   * injecting proxy, if it started one.
+   */
+  static final String PROXY_CONNECT_STRING_PROPERTY = "zmp.proxyConnectString";
+
+  /**
+   * The project property set by the {@code namespaces} goal to the service's connect string,
+   * followed by the path of each namespace without its number.
+   */
+  static final String NAMESPACE_CONNECT_STRING_PROPERTY = "zmp.namespaceConnectString";
+
   @Parameter(defaultValue = "${project}", readonly = true)
   protected MavenProject project;
 
   @Parameter(defaultValue = "${plugin}", readonly = true)
   protected PluginDescriptor plugin;
 
+  @Parameter(defaultValue = "${session}", readonly = true)
+  protected MavenSession session;
+
+  /**
+   * The directory to use to store plugin data and state.
+   *
+   * @since 1.1.0
+   */
+  @Parameter(alias = "zmpDir", property = "zmp.directory",
+      defaultValue = "${project.build.directory}/zmp")
+  protected File zmpDir;
+
+  /**
+   * Share one ZooKeeper service among all the projects of a build which use the same
+   * {@code zmpDir}, {@code clientPortAddress} and {@code clientPort}. The first {@code start} goal
+   * launches the service, and records it in a lease file in the {@code zmpDir}; later ones attach
+   * to it instead. The {@code stop} goal only stops the service once no other project is using it
+   * and no other project in the build is still to start it. For projects of a multi-module build
+   * to share a service, the {@code zmpDir} must be set to a common directory, such as
+   * {@code ${maven.multiModuleProjectDirectory}/target/zmp}.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "shared", property = "zmp.shared", defaultValue = "false")
+  protected boolean shared;
+
   /**
    * The local address on which to run the ZooKeeper server. This also affects the
    * {@code shutdownPort}.
@@ -48,7 +117,28 @@ public abstract class AbstractZooKeeperMojo extends AbstractMojo {
   protected String clientPortAddress;
 
   /**
-   * The port on which to listen for the shutdown string.
+   * The port on which to run the ZooKeeper server. When set to 0, the {@code start} goal selects
+   * any free port, and other goals use the port it selected.
+   *
+   * @since 1.0.0
+   */
+  @Parameter(alias = "clientPort", required = true, property = "zmp.clientPort",
+      defaultValue = "2181")
+  protected int clientPort;
+
+  /**
+   * The number of ZooKeeper servers to run as an ensemble, including any observers. When greater
+   * than one, each server uses consecutive client and shutdown ports, starting at the configured
+   * {@code clientPort} and {@code shutdownPort}.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "servers", property = "zmp.servers", defaultValue = "1")
+  protected int servers;
+
+  /**
+   * The port on which to listen for the shutdown string. When set to 0, the {@code start} goal
+   * selects any free port, and other goals use the port it selected.
    *
    * @since 1.0.0
    */
@@ -133,21 +223,143 @@ public abstract class AbstractZooKeeperMojo extends AbstractMojo {
     return false;
   }
 
+  /**
+   * The connect string for clients of the ZooKeeper service.
+   */
+  protected String connectString() {
+    return IntStream.range(0, Math.max(servers, 1))
+        .mapToObj(node -> clientPortAddress + ":" + (clientPort + node))
+        .collect(Collectors.joining(","));
+  }
+
+  /**
+   * Replace a client or shutdown port configured as 0 with the port selected when the service was
+   * started by an earlier execution of the {@code start} goal in this project, first waiting for
+   * the service to start, if it was started in the background.
+   */
+  protected void resolvePorts() throws MojoExecutionException, MojoFailureException {
+    StartZooKeeperMojo.awaitBackgroundStart(retainKey());
+    clientPort = resolvePort(clientPort, ACTUAL_CLIENT_PORT_PROPERTY);
+    shutdownPort = resolvePort(shutdownPort, ACTUAL_SHUTDOWN_PORT_PROPERTY);
+  }
+
+  private int resolvePort(int port, String property) throws MojoExecutionException {
+    if (port != 0) {
+      return port;
+    }
+    String actual = project.getProperties().getProperty(property);
+    if (actual == null) {
+      throw new MojoExecutionException(
+          "Port is 0, but the start goal has not set " + property + " in this project");
+    }
+    return Integer.parseInt(actual);
+  }
+
+  /**
+   * The lease file for a shared service, named for the configured, rather than selected, ports.
+   */
+  protected File leaseFile() {
+    return new File(zmpDir, clientPortAddress + "_" + clientPort + ".lease");
+  }
+
+  /**
+   * Identifies the current build, to tell a lease held by this build from one left by another.
+   */
+  protected String buildId() {
+    return ProcessHandle.current().pid() + "@" + session.getRequest().getStartTime().getTime();
+  }
+
+  /**
+   * The key under which sessions kept open for the current project are retained until it stops
+   * using the service, which may be shared with other projects.
+   */
+  protected String retainKey() {
+    return instanceKey() + "@" + project.getId();
+  }
+
+  /**
+   * The key which identifies a ZooKeeper service started by this plugin in the current JVM.
+   */
+  protected String instanceKey() {
+    return instanceKey(0);
+  }
+
+  /**
+   * The key which identifies a single server of a ZooKeeper service in the current JVM.
+   */
+  protected String instanceKey(int node) {
+    return clientPortAddress + ":" + (shutdownPort + node);
+  }
+
   static void deleteDirectory(File baseDir, String dirType) throws MojoExecutionException {
     if (!baseDir.exists()) {
       return;
     }
     try {
-      Files.walk(baseDir.toPath()).sorted(Comparator.reverseOrder()).forEach(path -> {
+      // delete each directory's entries as they're visited, rather than collecting every path first
+      Files.walkFileTree(baseDir.toPath(), new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          Files.deleteIfExists(file);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+          if (e != null) {
+            throw e;
+          }
+          Files.deleteIfExists(dir);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new MojoExecutionException(
+          "Can't clean " + dirType + " directory: " + baseDir.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Recreate the contents of a ZooKeeper data directory in another location. Snapshot files are
+   * hard-linked when possible, since ZooKeeper never modifies a snapshot after writing it, but
+   * transaction logs (and anything else) are copied, since ZooKeeper appends to its logs in place.
+   * Files are linked or copied in parallel.
+   */
+  static void seedDirectory(File source, File target) throws MojoExecutionException {
+    Path sourcePath = source.toPath();
+    Path targetPath = target.toPath();
+    List<Path> files;
+    try (Stream<Path> paths = Files.walk(sourcePath)) {
+      files = new ArrayList<>();
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (Files.isDirectory(path)) {
+          Files.createDirectories(targetPath.resolve(sourcePath.relativize(path)));
+        } else {
+          files.add(path);
+        }
+      }
+    } catch (IOException | UncheckedIOException e) {
+      throw new MojoExecutionException("Can't read seed directory: " + source.getAbsolutePath(), e);
+    }
+    try {
+      files.parallelStream().forEach(path -> {
+        Path dest = targetPath.resolve(sourcePath.relativize(path));
         try {
-          Files.deleteIfExists(path);
+          if (path.getFileName().toString().startsWith("snapshot.")) {
+            try {
+              Files.createLink(dest, path);
+              return;
+            } catch (IOException | UnsupportedOperationException e) {
+              // different file system, or links not supported; fall back to copying
+            }
+          }
+          Files.copy(path, dest);
         } catch (IOException e) {
           throw new UncheckedIOException(e);
         }
       });
-    } catch (IOException | UncheckedIOException e) {
-      throw new MojoExecutionException(
-          "Can't clean " + dirType + " directory: " + baseDir.getAbsolutePath(), e);
+    } catch (UncheckedIOException e) {
+      throw new MojoExecutionException("Can't seed data directory: " + target.getAbsolutePath(), e);
     }
   }
 
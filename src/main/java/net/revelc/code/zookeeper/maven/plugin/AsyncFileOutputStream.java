@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A file output stream whose writes are copied to a buffer, which a background thread writes to
+ * the file, so that the server's threads don't wait for the disk when they log. Writes only wait
+ * when the buffer is full, which bounds its memory if the disk can't keep up. Writing stops
+ * quietly if the file can't be written, since there is nowhere else to report it.
+ */
+final class AsyncFileOutputStream extends OutputStream {
+
+  private static final int MAX_BUFFERED = 4 * 1024 * 1024;
+
+  private final FileOutputStream out;
+  private final Thread writer;
+  private byte[] buffer = new byte[8192];
+  private int buffered;
+  private boolean writing;
+  private boolean closed;
+  private boolean failed;
+
+  AsyncFileOutputStream(File file, String threadName) throws IOException {
+    this.out = new FileOutputStream(file);
+    this.writer = new Thread(this::drain, threadName);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    try {
+      while (buffered > 0 && buffered + len > MAX_BUFFERED && !closed && !failed) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (failed) {
+      return;
+    }
+    if (buffered + len > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + len));
+    }
+    System.arraycopy(b, off, buffer, buffered, len);
+    buffered += len;
+    notifyAll();
+  }
+
+  private void drain() {
+    byte[] batch = new byte[8192];
+    while (true) {
+      int length;
+      synchronized (this) {
+        try {
+          while (buffered == 0 && !closed) {
+            wait();
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (buffered == 0) {
+          return;
+        }
+        // swap buffers, so the server's threads can keep writing while this one is on disk
+        byte[] full = buffer;
+        buffer = batch.length >= full.length ? batch : new byte[full.length];
+        batch = full;
+        length = buffered;
+        buffered = 0;
+        writing = true;
+        notifyAll();
+      }
+      try {
+        out.write(batch, 0, length);
+      } catch (IOException e) {
+        synchronized (this) {
+          failed = true;
+        }
+      }
+      synchronized (this) {
+        writing = false;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Wait until everything written so far is in the file.
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    try {
+      while ((buffered > 0 || writing) && !failed && writer.isAlive()) {
+        wait(100);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    try {
+      // don't hold up the JVM's exit for a disk which has stopped responding
+      writer.join(5000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      out.close();
+    }
+  }
+
+}
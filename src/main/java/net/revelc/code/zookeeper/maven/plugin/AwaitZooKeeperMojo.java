@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+
+/**
+ * Waits for the service started in the background by the {@code start} goal, with
+ * {@code startInBackground}, to serve requests, and makes its connect string and ports available
+ * to the build.
+ */
+@Mojo(name = "await", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST, threadSafe = true)
+public class AwaitZooKeeperMojo extends AbstractZooKeeperMojo {
+
+  @Override
+  protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    if (!StartZooKeeperMojo.awaitBackgroundStart(retainKey())) {
+      getLog().info("No ZooKeeper service is starting in the background");
+    }
+  }
+
+}
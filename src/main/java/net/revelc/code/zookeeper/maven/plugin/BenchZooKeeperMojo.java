@@ -0,0 +1,287 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.revelc.code.zookeeper.maven.plugin.LoadGenerator.Operation;
+import net.revelc.code.zookeeper.maven.plugin.LoadGenerator.Result;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Runs a workload against the running ZooKeeper server from many asynchronous client sessions,
+ * reporting throughput and latency percentiles, and failing the build if they don't meet the
+ * configured thresholds.
+ */
+@Mojo(name = "bench", threadSafe = true)
+public class BenchZooKeeperMojo extends AbstractZooKeeperMojo {
+
+  private static final String REPORT_FILE = "bench-report.json";
+
+  /**
+   * The mix of operations, as weights for each of {@code create}, {@code get}, {@code set},
+   * {@code delete}, {@code exists}, and {@code watch} (a {@code get} which sets a watch). Reads,
+   * updates, and watches are spread over {@code keyCount} existing nodes, while each create adds a
+   * new node, which a later delete removes.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "workload", property = "zmp.workload",
+      defaultValue = "get=50,set=20,exists=10,create=8,delete=8,watch=4")
+  protected String workload;
+
+  /**
+   * The number of client sessions running the workload.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "benchClients", property = "zmp.benchClients", defaultValue = "8")
+  protected int benchClients;
+
+  /**
+   * The number of requests each session keeps in flight; each completed request is immediately
+   * replaced with another.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "benchInFlight", property = "zmp.benchInFlight", defaultValue = "16")
+  protected int benchInFlight;
+
+  /**
+   * The time, in seconds, to run the workload before measuring, while the server and the JVM warm
+   * up.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "benchWarmup", property = "zmp.benchWarmup", defaultValue = "5")
+  protected int benchWarmup;
+
+  /**
+   * The time, in seconds, for which the workload is measured.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "benchDuration", property = "zmp.benchDuration", defaultValue = "30")
+  protected int benchDuration;
+
+  /**
+   * The number of existing nodes which the workload reads, updates, and watches.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "keyCount", property = "zmp.keyCount", defaultValue = "1000")
+  protected int keyCount;
+
+  /**
+   * How keys are chosen, either {@code uniform}, or {@code zipfian}, in which a few keys receive
+   * most of the requests.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "keyDistribution", property = "zmp.keyDistribution",
+      defaultValue = "uniform")
+  protected String keyDistribution;
+
+  /**
+   * The size, in bytes, of the data written by creates and updates.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "valueSize", property = "zmp.valueSize", defaultValue = "256")
+  protected int valueSize;
+
+  /**
+   * The node under which the workload creates its nodes. It is deleted when the workload ends.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "benchPath", property = "zmp.benchPath", defaultValue = "/zmp-bench")
+  protected String benchPath;
+
+  /**
+   * Fail the build if fewer requests than this complete each second. Zero disables the check.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "minThroughput", property = "zmp.minThroughput", defaultValue = "0")
+  protected double minThroughput;
+
+  /**
+   * Fail the build if the median latency, in milliseconds, is higher than this. Zero disables the
+   * check.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "maxP50Latency", property = "zmp.maxP50Latency", defaultValue = "0")
+  protected double maxP50Latency;
+
+  /**
+   * Fail the build if the 99th percentile latency, in milliseconds, is higher than this. Zero
+   * disables the check.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "maxP99Latency", property = "zmp.maxP99Latency", defaultValue = "0")
+  protected double maxP99Latency;
+
+  /**
+   * Fail the build if the 99.9th percentile latency, in milliseconds, is higher than this. Zero
+   * disables the check.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "maxP999Latency", property = "zmp.maxP999Latency", defaultValue = "0")
+  protected double maxP999Latency;
+
+  /**
+   * Fail the build if more requests than this fail.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "maxErrors", property = "zmp.maxErrors", defaultValue = "0")
+  protected long maxErrors;
+
+  @Override
+  protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    resolvePorts();
+    if (benchClients < 1 || benchInFlight < 1 || (long) benchClients * benchInFlight > 65535) {
+      throw new MojoExecutionException("benchClients and benchInFlight must be at least 1, with"
+          + " no more than 65535 requests in flight in total");
+    }
+    if (keyCount < 1 || valueSize < 0 || benchWarmup < 0 || benchDuration < 1) {
+      throw new MojoExecutionException("keyCount and benchDuration must be at least 1, and"
+          + " valueSize and benchWarmup can't be negative");
+    }
+    LoadGenerator generator =
+        new LoadGenerator(benchPath, workload, keyCount, valueSize, keyDistribution);
+
+    getLog().info("Running workload " + workload + " against ZooKeeper at " + connectString()
+        + " from " + benchClients + " sessions, for " + benchWarmup + " s warmup and "
+        + benchDuration + " s measured");
+    List<ZooKeeper> sessions = ZooKeeperClients.connect(connectString(), benchClients,
+        ZooKeeperClients.CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    Result result;
+    try {
+      result = generator.run(sessions, benchInFlight, benchWarmup, benchDuration, TimeUnit.SECONDS);
+    } finally {
+      ZooKeeperClients.close(sessions);
+    }
+
+    Map<String, LatencyHistogram> rows = new LinkedHashMap<>();
+    for (Operation op : Operation.values()) {
+      LatencyHistogram histogram = result.latencies.get(op);
+      if (histogram != null || result.errors.containsKey(op)) {
+        rows.put(op.label(), histogram == null ? new LatencyHistogram() : histogram);
+      }
+    }
+    final LatencyHistogram total = result.total();
+    rows.put("all", total);
+    logResults(result, rows);
+    writeReport(result, rows);
+    checkThresholds(result, total);
+  }
+
+  private void logResults(Result result, Map<String, LatencyHistogram> rows) {
+    getLog().info(String.format(Locale.ROOT, "%-8s %10s %10s %9s %9s %9s %9s %9s", "op", "count",
+        "ops/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+    rows.forEach((label, h) -> getLog().info(String.format(Locale.ROOT,
+        "%-8s %10d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f", label, h.count(),
+        result.throughput(h.count()), h.mean() / 1000, millis(h.percentile(50)),
+        millis(h.percentile(99)), millis(h.percentile(99.9)), millis(h.max()))));
+    getLog().info(result.totalErrors() + " requests failed, and " + result.watchEvents
+        + " watches were triggered");
+  }
+
+  private void writeReport(Result result, Map<String, LatencyHistogram> rows)
+      throws MojoExecutionException {
+    File report = new File(zmpDir, REPORT_FILE);
+    if (!zmpDir.mkdirs() && !zmpDir.isDirectory()) {
+      throw new MojoExecutionException("Can't create directory " + zmpDir.getAbsolutePath());
+    }
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("connectString", connectString());
+    json.put("workload", workload);
+    json.put("clients", benchClients);
+    json.put("inFlight", benchInFlight);
+    json.put("seconds", result.elapsedNanos / 1e9);
+    json.put("errors", result.totalErrors());
+    json.put("watchEvents", result.watchEvents);
+    Map<String, Map<String, Object>> operations = new LinkedHashMap<>();
+    rows.forEach((label, h) -> {
+      Map<String, Object> row = new LinkedHashMap<>();
+      row.put("count", h.count());
+      row.put("throughput", result.throughput(h.count()));
+      row.put("meanMillis", h.mean() / 1000);
+      row.put("p50Millis", millis(h.percentile(50)));
+      row.put("p90Millis", millis(h.percentile(90)));
+      row.put("p99Millis", millis(h.percentile(99)));
+      row.put("p999Millis", millis(h.percentile(99.9)));
+      row.put("maxMillis", millis(h.max()));
+      operations.put(label, row);
+    });
+    json.put("operations", operations);
+    try {
+      JsonReports.write(report, json);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to write " + report.getAbsolutePath(), e);
+    }
+    getLog().info("Benchmark report written to " + report.getAbsolutePath());
+  }
+
+  private void checkThresholds(Result result, LatencyHistogram total)
+      throws MojoFailureException {
+    List<String> failures = new ArrayList<>();
+    double throughput = result.throughput(total.count());
+    if (minThroughput > 0 && throughput < minThroughput) {
+      failures.add(String.format(Locale.ROOT, "throughput %.1f ops/s is below minThroughput %.1f",
+          throughput, minThroughput));
+    }
+    checkLatency(failures, "p50", millis(total.percentile(50)), "maxP50Latency", maxP50Latency);
+    checkLatency(failures, "p99", millis(total.percentile(99)), "maxP99Latency", maxP99Latency);
+    checkLatency(failures, "p99.9", millis(total.percentile(99.9)), "maxP999Latency",
+        maxP999Latency);
+    if (result.totalErrors() > maxErrors) {
+      failures.add(result.totalErrors() + " failed requests exceed maxErrors " + maxErrors
+          + " " + result.errors);
+    }
+    if (!failures.isEmpty()) {
+      throw new MojoFailureException(
+          "ZooKeeper benchmark did not meet its thresholds: " + String.join("; ", failures));
+    }
+  }
+
+  private static void checkLatency(List<String> failures, String name, double actual,
+      String threshold, double max) {
+    if (max > 0 && actual > max) {
+      failures.add(String.format(Locale.ROOT, "%s latency %.3f ms is above %s %.3f", name, actual,
+          threshold, max));
+    }
+  }
+
+  private static double millis(long micros) {
+    return micros / 1000.0;
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import net.revelc.code.zookeeper.maven.plugin.ZnodeFixture.Znode;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.zookeeper.KeeperException.Code;
+
+/**
+ * Saves the state of the running ZooKeeper server, after the {@code load} goal has loaded the
+ * given fixtures, as a compressed archive in {@code stateCacheDirectory}, named for a hash of the
+ * fixtures. Later builds whose {@code start} goal is given the same fixtures restore the archive,
+ * instead of loading them again. Ephemeral nodes aren't saved, since their sessions don't survive
+ * a restart; the {@code load} goal creates them again.
+ */
+@Mojo(name = "capture", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST, threadSafe = true)
+public class CaptureZooKeeperMojo extends AbstractZooKeeperMojo {
+
+  /**
+   * The fixture files loaded by the {@code load} goal, whose hash names the archive.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "fixtures", property = "zmp.fixtures", required = true)
+  protected List<File> fixtures;
+
+  /**
+   * The directory in which state archives are kept; the same as the {@code start} goal's.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "stateCacheDirectory", property = "zmp.stateCacheDirectory",
+      defaultValue = "${settings.localRepository}/.cache/zookeeper-maven-plugin/state")
+  protected File stateCacheDirectory;
+
+  /**
+   * The amount of time, in seconds, to wait for the server to write its snapshot.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "captureWait", property = "zmp.captureWait", defaultValue = "60")
+  protected int captureWait;
+
+  @Override
+  protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    resolvePorts();
+    Map<String, Znode> nodes = ZnodeFixture.read(fixtures);
+    String key = StateArchive.key(nodes);
+    File archive = StateArchive.file(stateCacheDirectory, key);
+    if (key.equals(project.getProperties().getProperty(RESTORED_STATE_PROPERTY))) {
+      getLog().info("Not capturing ZooKeeper state, because it was restored from "
+          + archive.getAbsolutePath());
+      return;
+    }
+    if (archive.isFile()) {
+      getLog().info("ZooKeeper state for these fixtures was already captured in "
+          + archive.getAbsolutePath());
+      return;
+    }
+    long captureWaitMillis = TimeUnit.SECONDS.toMillis(captureWait);
+    if (captureWaitMillis < 1 || captureWaitMillis > Integer.MAX_VALUE) {
+      throw new MojoExecutionException("captureWait must be at least 1 second, and no more than "
+          + TimeUnit.MILLISECONDS.toSeconds(Integer.MAX_VALUE));
+    }
+
+    final long start = System.nanoTime();
+    List<Znode> ephemerals =
+        nodes.values().stream().filter(n -> n.mode.isEphemeral()).collect(Collectors.toList());
+    if (!ephemerals.isEmpty()) {
+      // closing the session which owns them deletes them before the snapshot
+      ZooKeeperClients.closeRetained(retainKey());
+    }
+    // every server of an ensemble has the same state, so the first one's snapshot is enough
+    String address = clientPortAddress + ":" + shutdownPort;
+    String response;
+    try {
+      response = ZooKeeperClients.control(clientPortAddress, shutdownPort, "snapshot",
+          (int) captureWaitMillis).trim();
+    } catch (IOException e) {
+      throw new MojoFailureException("Unable to request a snapshot from " + address, e);
+    }
+    if (!response.startsWith("snapshot ")) {
+      throw new MojoFailureException(
+          "ZooKeeper at " + address + " did not write a snapshot: " + response);
+    }
+    File snapshot = new File(response.substring("snapshot ".length()));
+    try {
+      StateArchive.write(archive, snapshot);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to write " + archive.getAbsolutePath(), e);
+    }
+    // with the load goal's default batch size and transactions in flight
+    LoadZooKeeperMojo.createEphemerals(connectString(), retainKey(), ephemerals,
+        (op, code) -> code == Code.NODEEXISTS, 1000, 32);
+    getLog().info("Captured ZooKeeper state (" + archive.length() + " bytes) in "
+        + archive.getAbsolutePath() + " in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dynamic Class Data Sharing archive of the classes the forked launcher loads, so that later
+ * launcher JVMs map them from the archive instead of loading and verifying them again. The archive
+ * is named for the plugin version, the JDK, and the contents of the launcher's classpath, so it is
+ * only used with the classes it was created from.
+ *
+ * <p>A JVM writes the archive when it exits, and a partly written archive crashes any JVM which
+ * maps it. So the launcher writes to a temporary file, which is only moved into place once its
+ * JVM has exited and another JVM has been able to start with it.
+ */
+final class ClassDataSharing {
+
+  // -XX:ArchiveClassesAtExit first appeared in JDK 13
+  private static final int MIN_JAVA_VERSION = 13;
+
+  private final File directory;
+  private final File archive;
+  private final String javaCommand;
+  private final String classpath;
+  private File pending;
+
+  private ClassDataSharing(File directory, String name, String javaCommand, String classpath) {
+    this.directory = directory;
+    this.archive = new File(directory, name + ".jsa");
+    this.javaCommand = javaCommand;
+    this.classpath = classpath;
+  }
+
+  /**
+   * The archive for the launcher run by the given Java command with the given classpath, in the
+   * given directory, or null if this JDK can't create one, or if the classpath has a directory in
+   * it (as when the plugin's classes come from another module of the same build), which the JVM
+   * refuses to archive classes from. The launcher is run with the given classpath string, which may
+   * be a pathing jar for those entries.
+   */
+  static ClassDataSharing forLauncher(File directory, String pluginVersion, String javaCommand,
+      List<File> classpath, String launcherClasspath) throws IOException {
+    if (Runtime.version().feature() < MIN_JAVA_VERSION
+        || classpath.stream().anyMatch(File::isDirectory)) {
+      return null;
+    }
+    MessageDigest digest = Digests.sha256();
+    digest.update((System.getProperty("java.home") + "\n" + System.getProperty("java.vm.version")
+        + "\n").getBytes(UTF_8));
+    digest.update((launcherClasspath + "\n").getBytes(UTF_8));
+    Digests.updateFiles(digest, classpath);
+    String hash = Digests.hex(digest, 8);
+    if (!directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Can't create directory " + directory.getAbsolutePath());
+    }
+    return new ClassDataSharing(directory, "launcher-" + pluginVersion + "-jdk"
+        + Runtime.version().feature() + "-" + hash, javaCommand, launcherClasspath);
+  }
+
+  File archive() {
+    return archive;
+  }
+
+  /**
+   * Move any archive written by a launcher which has since exited into place, if it is complete,
+   * and return whether the archive is ready to use. Otherwise, it is created by the next launcher,
+   * unless a running launcher is already creating it.
+   */
+  boolean prepare() throws IOException {
+    boolean creating = false;
+    File[] markers = directory.listFiles(
+        (dir, name) -> name.startsWith(archive.getName() + ".") && name.endsWith(".pid"));
+    for (File marker : markers == null ? new File[0] : markers) {
+      Optional<ProcessHandle> writer;
+      try {
+        writer = ProcessHandle.of(Long.parseLong(
+            new String(Files.readAllBytes(marker.toPath()), UTF_8).trim()));
+      } catch (NumberFormatException | IOException e) {
+        writer = Optional.empty();
+      }
+      if (writer.map(ProcessHandle::isAlive).orElse(false)) {
+        creating = true;
+        continue;
+      }
+      String name = marker.getName();
+      File written = new File(directory, name.substring(0, name.length() - ".pid".length()));
+      if (written.isFile() && isComplete(written)) {
+        try {
+          Files.move(written.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+          // another build moved or replaced it first
+        }
+      }
+      Files.deleteIfExists(written.toPath());
+      Files.deleteIfExists(marker.toPath());
+    }
+    if (archive.isFile()) {
+      return true;
+    }
+    if (!creating) {
+      pending = new File(directory, archive.getName() + "." + UUID.randomUUID());
+    }
+    return false;
+  }
+
+  /**
+   * Arguments for the launcher JVM which use the archive if it is ready, or create it if it
+   * isn't being created already. Only one launcher creates it, even for an ensemble.
+   */
+  List<String> jvmArgs() {
+    if (archive.isFile()) {
+      return Collections.singletonList("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+    }
+    if (pending != null && !new File(pending.getPath() + ".pid").exists()) {
+      return Collections.singletonList("-XX:ArchiveClassesAtExit=" + pending.getAbsolutePath());
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Record which process is creating the archive, if the given launcher was asked to. Without this
+   * record, the archive it writes is never used, so a later launcher creates another.
+   */
+  void forked(List<String> jvmArgs, long pid) {
+    if (pending != null
+        && jvmArgs.contains("-XX:ArchiveClassesAtExit=" + pending.getAbsolutePath())) {
+      try {
+        Files.write(new File(pending.getPath() + ".pid").toPath(),
+            Long.toString(pid).getBytes(UTF_8));
+      } catch (IOException e) {
+        pending = null;
+      }
+    }
+  }
+
+  /**
+   * Check that a JVM can start with the written archive; it crashes if the archive is incomplete.
+   */
+  private boolean isComplete(File written) {
+    ProcessBuilder builder = new ProcessBuilder(javaCommand, "-Xshare:on",
+        "-XX:SharedArchiveFile=" + written.getAbsolutePath(), "-version");
+    builder.environment().put("CLASSPATH", classpath);
+    builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+    try {
+      Process check = builder.start();
+      if (!check.waitFor(60, TimeUnit.SECONDS)) {
+        check.destroyForcibly();
+        return false;
+      }
+      return check.exitValue() == 0;
+    } catch (IOException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+}
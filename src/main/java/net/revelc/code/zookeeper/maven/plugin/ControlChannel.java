@@ -0,0 +1,266 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A line-based command channel on the launcher's shutdown port. Each connection sends a single
+ * command and receives the response, after which the server closes the connection. Connections
+ * are multiplexed on one non-blocking thread, while commands run one at a time on another, so a
+ * slow command, such as a snapshot, doesn't hold up other clients. Sending the shutdown string
+ * stops the channel, after replying {@code done}.
+ */
+final class ControlChannel implements Runnable {
+
+  private static final Logger log = LoggerFactory.getLogger(ControlChannel.class);
+
+  private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+  private static final int MAX_COMMAND_BYTES = 1024;
+
+  private final String shutdownString;
+  private final Function<String, String> commands;
+  private final Runnable onShutdown;
+  private final Selector selector;
+  private final ServerSocketChannel listener;
+  private final ExecutorService executor;
+  private final Queue<Connection> answered = new ConcurrentLinkedQueue<>();
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private volatile boolean closed = false;
+
+  private static final class Connection {
+
+    private final SocketChannel channel;
+    private final long accepted = System.nanoTime();
+    private final ByteBuffer command = ByteBuffer.allocate(MAX_COMMAND_BYTES);
+    private ByteBuffer response;
+    private boolean shutdown;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * Listen on the given address, answering commands other than the shutdown string with the given
+   * function, which returns the response, without its trailing newline.
+   */
+  ControlChannel(String host, int port, String shutdownString, Function<String, String> commands,
+      Runnable onShutdown) throws IOException {
+    this.shutdownString = shutdownString;
+    this.commands = commands;
+    this.onShutdown = onShutdown;
+    this.selector = Selector.open();
+    // bind now, rather than in run(), so that an ephemeral port is known as soon as this exists
+    this.listener = ServerSocketChannel.open();
+    try {
+      listener.bind(new InetSocketAddress(InetAddress.getByName(host), port), 10);
+      listener.configureBlocking(false);
+      listener.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      listener.close();
+      selector.close();
+      throw e;
+    }
+    this.executor = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "ControlCommands");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  int getLocalPort() {
+    return listener.socket().getLocalPort();
+  }
+
+  @Override
+  public void run() {
+    boolean shutdown = false;
+    try {
+      while (!shutdown && !closed) {
+        selector.select(1000);
+        for (Connection connection; (connection = answered.poll()) != null;) {
+          SelectionKey key = connection.channel.keyFor(selector);
+          if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+          }
+        }
+        for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+          SelectionKey key = i.next();
+          i.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else if (key.isReadable()) {
+            read(key);
+          } else if (key.isWritable()) {
+            shutdown |= write(key);
+          }
+        }
+        expireIdleConnections();
+      }
+    } catch (IOException e) {
+      if (!closed) {
+        throw new UncheckedIOException(e);
+      }
+    } finally {
+      executor.shutdownNow();
+      for (SelectionKey key : selector.keys()) {
+        closeQuietly(key);
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        log.warn("Problem closing control channel", e);
+      }
+      stopped.countDown();
+      onShutdown.run();
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = listener.accept();
+    if (channel != null) {
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
+  }
+
+  private void read(SelectionKey key) {
+    Connection connection = (Connection) key.attachment();
+    int read;
+    try {
+      read = connection.channel.read(connection.command);
+    } catch (IOException e) {
+      closeQuietly(key);
+      return;
+    }
+    ByteBuffer buffer = connection.command;
+    int newline = -1;
+    for (int i = 0; i < buffer.position() && newline < 0; i++) {
+      if (buffer.get(i) == '\n') {
+        newline = i;
+      }
+    }
+    if (newline < 0) {
+      if (read < 0) {
+        log.warn("Connection lost to unresponsive client");
+        closeQuietly(key);
+      } else if (!buffer.hasRemaining()) {
+        respond(key, connection, "error: command too long\n", false);
+      }
+      return;
+    }
+    String command = new String(buffer.array(), 0, newline, UTF_8).trim();
+    if (command.equals(shutdownString)) {
+      log.info("Received shutdown message");
+      respond(key, connection, "done\r\n", true);
+      return;
+    }
+    // wait for the response before doing anything else on this connection
+    key.interestOps(0);
+    executor.execute(() -> {
+      String response;
+      try {
+        response = commands.apply(command);
+      } catch (RuntimeException e) {
+        log.warn("Control command '{}' failed", command, e);
+        response = "error: " + e;
+      }
+      connection.response = UTF_8.encode(response + "\n");
+      answered.add(connection);
+      selector.wakeup();
+    });
+  }
+
+  private void respond(SelectionKey key, Connection connection, String response,
+      boolean shutdown) {
+    connection.response = UTF_8.encode(response);
+    connection.shutdown = shutdown;
+    key.interestOps(SelectionKey.OP_WRITE);
+  }
+
+  /**
+   * Write as much of the response as the connection accepts, returning true if the shutdown
+   * string's response has been sent.
+   */
+  private boolean write(SelectionKey key) {
+    Connection connection = (Connection) key.attachment();
+    try {
+      connection.channel.write(connection.response);
+      if (connection.response.hasRemaining()) {
+        return false;
+      }
+    } catch (IOException e) {
+      log.warn("Problem sending control response", e);
+    }
+    closeQuietly(key);
+    return connection.shutdown;
+  }
+
+  private void expireIdleConnections() {
+    long now = System.nanoTime();
+    for (SelectionKey key : selector.keys()) {
+      if (key.isValid() && key.attachment() instanceof Connection
+          && key.interestOps() == SelectionKey.OP_READ
+          && now - ((Connection) key.attachment()).accepted > IDLE_TIMEOUT_NANOS) {
+        log.warn("Connection lost to unresponsive client");
+        closeQuietly(key);
+      }
+    }
+  }
+
+  private static void closeQuietly(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      // don't care
+    }
+  }
+
+  /**
+   * Stop the channel directly, rather than by the shutdown string, waiting briefly for its port to
+   * be released.
+   */
+  void close() throws InterruptedException {
+    closed = true;
+    selector.wakeup();
+    stopped.await(5, TimeUnit.SECONDS);
+  }
+
+}
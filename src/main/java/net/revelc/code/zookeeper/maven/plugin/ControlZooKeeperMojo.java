@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Sends a command to the control channel of each ZooKeeper server, on its shutdown port, and logs
+ * the response.
+ */
+@Mojo(name = "control", threadSafe = true)
+public class ControlZooKeeperMojo extends AbstractZooKeeperMojo {
+
+  /**
+   * The command to send: {@code status}, for the server's state and the number of its connections,
+   * sessions, and znodes; {@code stats}, for its metrics; {@code snapshot}, to write a snapshot;
+   * {@code reset}, to delete every znode except ZooKeeper's own; {@code close-sessions}, to close
+   * every client session; {@code log-level <level> [logger]}, to change the level of the
+   * server's loggers, or just those under the named logger; or {@code proxy [settings]}, to show
+   * or change the faults added by the {@code proxy}, as in {@code proxyFaults}, where
+   * {@code for=<milliseconds>} restores the previous faults after that time, {@code reset} removes
+   * every fault, and {@code drop-connections} resets every proxied connection.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "command", property = "zmp.command", defaultValue = "status")
+  protected String command;
+
+  /**
+   * The amount of time, in seconds, to wait for each server's response.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "commandWait", property = "zmp.commandWait", defaultValue = "30")
+  protected int commandWait;
+
+  @Override
+  protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    resolvePorts();
+    if (command.trim().equals(shutdownString.trim())) {
+      throw new MojoExecutionException("Use the stop goal to stop the ZooKeeper service");
+    }
+    long commandWaitMillis = TimeUnit.SECONDS.toMillis(commandWait);
+    if (commandWaitMillis < 1 || commandWaitMillis > Integer.MAX_VALUE) {
+      throw new MojoExecutionException("commandWait must be at least 1 second, and no more than "
+          + TimeUnit.MILLISECONDS.toSeconds(Integer.MAX_VALUE));
+    }
+    for (int node = 0; node < servers; node++) {
+      String address = clientPortAddress + ":" + (shutdownPort + node);
+      String response;
+      try {
+        response = ZooKeeperClients.control(clientPortAddress, shutdownPort + node, command,
+            (int) commandWaitMillis);
+      } catch (IOException e) {
+        throw new MojoFailureException("Unable to send '" + command + "' to " + address, e);
+      }
+      String prefix = servers > 1 ? "server." + (node + 1) + ": " : "";
+      for (String line : response.split("\\r?\\n")) {
+        if (line.startsWith("error:")) {
+          throw new MojoFailureException("ZooKeeper at " + address + " rejected '" + command
+              + "': " + line.substring("error:".length()).trim());
+        }
+        getLog().info(prefix + line);
+      }
+    }
+  }
+
+}
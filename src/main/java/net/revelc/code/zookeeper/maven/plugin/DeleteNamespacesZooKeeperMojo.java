@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Deletes the namespaces created by the {@code namespaces} goal, with everything in them and their
+ * quotas, deleting many znodes at once from several sessions.
+ */
+@Mojo(name = "delete-namespaces", defaultPhase = LifecyclePhase.POST_INTEGRATION_TEST,
+    threadSafe = true)
+public class DeleteNamespacesZooKeeperMojo extends AbstractZooKeeperMojo {
+
+  /**
+   * The path of each namespace, without its number; every top-level znode whose path starts with
+   * this is deleted.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "namespacePrefix", property = "zmp.namespacePrefix", defaultValue = "/fork-")
+  protected String namespacePrefix;
+
+  @Override
+  protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    resolvePorts();
+    NamespacesZooKeeperMojo.checkPrefix(namespacePrefix);
+    final long start = System.nanoTime();
+    List<String> roots;
+    ZooKeeper zk = ZooKeeperClients.connect(connectString(),
+        ZooKeeperClients.CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    try {
+      List<String> namespaces = new ArrayList<>();
+      for (String child : zk.getChildren("/", false)) {
+        if (("/" + child).startsWith(namespacePrefix)) {
+          namespaces.add("/" + child);
+        }
+      }
+      roots = NamespacesZooKeeperMojo.existing(zk, namespaces);
+    } catch (KeeperException e) {
+      throw new MojoExecutionException("Unable to list namespaces", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("interrupted", e);
+    } finally {
+      ZooKeeperClients.close(zk);
+    }
+    int deleted = ZnodeReset.delete(connectString(), roots);
+    getLog().info("Deleted " + deleted + " znodes from namespaces " + namespacePrefix + "* in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+  }
+
+}
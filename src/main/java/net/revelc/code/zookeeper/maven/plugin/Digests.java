@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SHA-256 digests, which name files by what they were made from, such as the launcher's pathing
+ * jar and class data sharing archive, or captured state, so that changed inputs get a new file
+ * instead of a stale one.
+ */
+final class Digests {
+
+  private Digests() {}
+
+  /**
+   * A new SHA-256 digest, which every JDK provides.
+   */
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Add the given files to the digest by their path, size, and modification time, not their
+   * contents, which is enough to tell a rebuilt snapshot from the one it replaced.
+   */
+  static void updateFiles(MessageDigest digest, List<File> files) {
+    for (File file : files) {
+      digest.update((file.getAbsolutePath() + "\n" + file.length() + "\n" + file.lastModified()
+          + "\n").getBytes(UTF_8));
+    }
+  }
+
+  /**
+   * The first given number of bytes of the digest, in hex.
+   */
+  static String hex(MessageDigest digest, int bytes) {
+    StringBuilder hash = new StringBuilder();
+    for (byte b : Arrays.copyOf(digest.digest(), bytes)) {
+      hash.append(String.format("%02x", b));
+    }
+    return hash.toString();
+  }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how much faster small transaction log writes are in a directory with the ephemeral
+ * durability settings than with ZooKeeper's defaults. Like ZooKeeper's transaction log, the default
+ * settings preallocate the file in large blocks and force each write to disk, while the ephemeral
+ * settings preallocate small blocks and never force writes.
+ */
+final class DurabilityProbe {
+
+  private static final int WRITES = 100;
+  private static final int WRITE_BYTES = 512;
+  private static final long DEFAULT_PREALLOC_BYTES = 64L * 1024 * 1024;
+  private static final long EPHEMERAL_PREALLOC_BYTES = 1024L * 1024;
+
+  private DurabilityProbe() {}
+
+  /**
+   * Write to temporary files in the given directory with each group of settings, and describe the
+   * difference in write throughput.
+   */
+  static String run(File directory) throws IOException {
+    Files.createDirectories(directory.toPath());
+    long durable = timeWrites(directory, DEFAULT_PREALLOC_BYTES, true);
+    long ephemeral = timeWrites(directory, EPHEMERAL_PREALLOC_BYTES, false);
+    return String.format(
+        "%d transaction log writes took %d ms with default durability and %d ms with ephemeral"
+            + " durability (%.1fx the write throughput) in %s",
+        WRITES, TimeUnit.NANOSECONDS.toMillis(durable), TimeUnit.NANOSECONDS.toMillis(ephemeral),
+        (double) durable / Math.max(ephemeral, 1), directory.getAbsolutePath());
+  }
+
+  private static long timeWrites(File directory, long preallocBytes, boolean force)
+      throws IOException {
+    Path file = Files.createTempFile(directory.toPath(), "zmp-probe", ".log");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      ByteBuffer record = ByteBuffer.allocate(WRITE_BYTES);
+      ByteBuffer fill = ByteBuffer.allocate(1);
+      long start = System.nanoTime();
+      long allocated = 0;
+      for (int i = 0; i < WRITES; i++) {
+        long position = (long) i * WRITE_BYTES;
+        if (position + WRITE_BYTES > allocated) {
+          // extend the file the way ZooKeeper pads its transaction log
+          allocated += preallocBytes;
+          fill.rewind();
+          channel.write(fill, allocated - 1);
+        }
+        record.rewind();
+        channel.write(record, position);
+        if (force) {
+          channel.force(false);
+        }
+      }
+      return System.nanoTime() - start;
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+}
@@ -0,0 +1,536 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A TCP proxy in front of the server's client port, which clients connect to in its place, and
+ * which adds latency, jitter, bandwidth limits, dropped connections, and partitions to the traffic
+ * it relays. All connections are relayed by one non-blocking thread. Faults can be changed while
+ * it runs, optionally for a limited time, after which the previous faults are restored.
+ *
+ * <p>A partition stops relaying in both directions without closing anything, as a network
+ * partition would, so clients time out rather than see their connections fail. Whatever was sent
+ * during the partition is delivered once it heals, unless the client has given up by then.
+ */
+final class FaultProxy implements Runnable {
+
+  private static final Logger log = LoggerFactory.getLogger(FaultProxy.class);
+
+  private static final int CHUNK_BYTES = 16 * 1024;
+  // stop reading from a side while this much of its data is waiting to be delivered
+  private static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+  /**
+   * The faults the proxy adds, parsed from {@code key=value} pairs separated by spaces or commas.
+   */
+  static final class Faults {
+
+    static final Faults NONE = new Faults(0, 0, 0, 0, false);
+
+    final long latencyMillis;
+    final long jitterMillis;
+    final long bandwidth;
+    final double drop;
+    final boolean partition;
+
+    private Faults(long latencyMillis, long jitterMillis, long bandwidth, double drop,
+        boolean partition) {
+      this.latencyMillis = latencyMillis;
+      this.jitterMillis = jitterMillis;
+      this.bandwidth = bandwidth;
+      this.drop = drop;
+      this.partition = partition;
+    }
+
+    /**
+     * These faults, changed by the given settings: {@code latency} and {@code jitter}, in
+     * milliseconds, added to each direction; {@code bandwidth}, in bytes per second in each
+     * direction of each connection, or 0 for no limit; {@code drop}, the probability that a
+     * connection is closed each time data is relayed on it; and {@code partition}, true or false.
+     */
+    Faults with(String settings) {
+      long latency = latencyMillis;
+      long jitter = jitterMillis;
+      long rate = bandwidth;
+      double dropChance = drop;
+      boolean partitioned = partition;
+      for (String setting : settings.trim().split("[\\s,]+")) {
+        if (setting.isEmpty()) {
+          continue;
+        }
+        String[] parts = setting.split("=", 2);
+        String value = parts.length == 2 ? parts[1] : "";
+        try {
+          switch (parts[0].toLowerCase(Locale.ROOT)) {
+            case "latency":
+              latency = nonNegative(Long.parseLong(value));
+              break;
+            case "jitter":
+              jitter = nonNegative(Long.parseLong(value));
+              break;
+            case "bandwidth":
+              rate = nonNegative(Long.parseLong(value));
+              break;
+            case "drop":
+              dropChance = Double.parseDouble(value);
+              if (!(dropChance >= 0 && dropChance <= 1)) {
+                throw new IllegalArgumentException();
+              }
+              break;
+            case "partition":
+              if (!"true".equals(value) && !"false".equals(value)) {
+                throw new IllegalArgumentException();
+              }
+              partitioned = Boolean.parseBoolean(value);
+              break;
+            default:
+              throw new IllegalArgumentException("unknown fault '" + parts[0]
+                  + "'; expected latency, jitter, bandwidth, drop, or partition");
+          }
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException(e.getMessage() != null
+              && !(e instanceof NumberFormatException) ? e.getMessage()
+                  : "bad value in '" + setting + "'", e);
+        }
+      }
+      return new Faults(latency, jitter, rate, dropChance, partitioned);
+    }
+
+    private static long nonNegative(long value) {
+      if (value < 0) {
+        throw new IllegalArgumentException();
+      }
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return "latency=" + latencyMillis + " jitter=" + jitterMillis + " bandwidth=" + bandwidth
+          + " drop=" + drop + " partition=" + partition;
+    }
+  }
+
+  /**
+   * Data read from one side of a connection, waiting to be written to the other.
+   */
+  private static final class Chunk {
+
+    private final long due;
+    private final ByteBuffer data;
+
+    Chunk(long due, ByteBuffer data) {
+      this.due = due;
+      this.data = data;
+    }
+  }
+
+  /**
+   * One direction of a proxied connection.
+   */
+  private final class Flow {
+
+    private final SocketChannel to;
+    private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+    private int queuedBytes;
+    private long linkFree;
+    private long lastDue;
+    private boolean ended;
+    private boolean shutDown;
+
+    Flow(SocketChannel to) {
+      this.to = to;
+    }
+
+    /**
+     * Queue the data for delivery once it has been sent at the limited bandwidth, and then has
+     * crossed the simulated network, keeping it in order.
+     */
+    void add(ByteBuffer data, long now) {
+      Faults current = faults;
+      long sent = Math.max(now, linkFree);
+      if (current.bandwidth > 0) {
+        sent += TimeUnit.SECONDS.toNanos(data.remaining()) / current.bandwidth;
+      }
+      linkFree = sent;
+      long delay = current.latencyMillis
+          + (current.jitterMillis > 0 ? random.nextLong(current.jitterMillis + 1) : 0);
+      long due = sent + TimeUnit.MILLISECONDS.toNanos(delay);
+      lastDue = queue.isEmpty() ? due : Math.max(lastDue, due);
+      queue.add(new Chunk(lastDue, data));
+      queuedBytes += data.remaining();
+    }
+  }
+
+  private final class Connection {
+
+    private final SocketChannel client;
+    private final SocketChannel server;
+    private final Flow up;
+    private final Flow down;
+    private boolean connected;
+
+    Connection(SocketChannel client, SocketChannel server) {
+      this.client = client;
+      this.server = server;
+      this.up = new Flow(server);
+      this.down = new Flow(client);
+    }
+
+    Flow flowFrom(SocketChannel channel) {
+      return channel == client ? up : down;
+    }
+  }
+
+  private final String serverHost;
+  private final IntSupplier serverPort;
+  private final Selector selector;
+  private final ServerSocketChannel listener;
+  private final List<Connection> connections = new ArrayList<>();
+  private final SplittableRandom random = new SplittableRandom();
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private volatile Faults faults;
+  private volatile Faults revertTo;
+  private volatile long revertAt;
+  private volatile boolean dropAll;
+  private volatile boolean closed;
+  private volatile int connectionCount;
+
+  /**
+   * Listen on the given address, relaying connections to the server's client port on the given
+   * host, which is only looked up as each connection is accepted, since an ephemeral client port
+   * isn't known until the server is serving.
+   */
+  FaultProxy(String host, int port, String serverHost, IntSupplier serverPort, Faults faults)
+      throws IOException {
+    this.serverHost = serverHost;
+    this.serverPort = serverPort;
+    this.faults = faults;
+    this.selector = Selector.open();
+    this.listener = ServerSocketChannel.open();
+    try {
+      listener.bind(new InetSocketAddress(InetAddress.getByName(host), port));
+      listener.configureBlocking(false);
+      listener.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      listener.close();
+      selector.close();
+      throw e;
+    }
+  }
+
+  int getLocalPort() {
+    return listener.socket().getLocalPort();
+  }
+
+  /**
+   * Run a {@code proxy} command from the control channel, returning its response: with no
+   * arguments, the current faults and connections; {@code reset}, to remove every fault;
+   * {@code drop-connections}, to close every connection; or fault settings, optionally with
+   * {@code for=<milliseconds>}, after which the faults in place before the command are restored.
+   */
+  String control(String arguments) {
+    String args = arguments.trim();
+    if (args.equals("drop-connections")) {
+      dropAll = true;
+      selector.wakeup();
+      return "dropping connections";
+    }
+    long forMillis = 0;
+    StringBuilder settings = new StringBuilder();
+    for (String setting : args.split("[\\s,]+")) {
+      if (setting.startsWith("for=")) {
+        try {
+          forMillis = Long.parseLong(setting.substring("for=".length()));
+        } catch (NumberFormatException e) {
+          return "error: bad value in '" + setting + "'";
+        }
+      } else if (!setting.equals("reset")) {
+        settings.append(setting).append(' ');
+      }
+    }
+    Faults previous = faults;
+    Faults next;
+    try {
+      next = (args.startsWith("reset") ? Faults.NONE : previous).with(settings.toString());
+    } catch (IllegalArgumentException e) {
+      return "error: " + e.getMessage();
+    }
+    if (!args.isEmpty()) {
+      synchronized (this) {
+        // a timed change reverts to the faults from before any earlier timed change
+        revertTo = forMillis > 0 ? (revertTo == null ? previous : revertTo) : null;
+        revertAt = forMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(forMillis) : 0;
+        faults = next;
+      }
+      log.info("Proxy faults set to {}{}", next, forMillis > 0 ? " for " + forMillis + " ms" : "");
+      selector.wakeup();
+    }
+    return next + " connections=" + connectionCount
+        + (revertTo != null ? " reverting in " + TimeUnit.NANOSECONDS.toMillis(
+            Math.max(0, revertAt - System.nanoTime())) + " ms" : "");
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!closed) {
+        long now = System.nanoTime();
+        revertIfDue(now);
+        if (dropAll) {
+          dropAll = false;
+          new ArrayList<>(connections).forEach(this::close);
+        }
+        long wait = deliver(now);
+        if (revertTo != null) {
+          wait = Math.min(wait, revertAt - now);
+        }
+        updateInterest();
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+        now = System.nanoTime();
+        for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+          SelectionKey key = i.next();
+          i.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else if (key.isConnectable()) {
+            finishConnect(key);
+          } else if (key.isReadable()) {
+            read(key, now);
+          }
+        }
+      }
+    } catch (IOException e) {
+      if (!closed) {
+        // nothing else would report it, and clients now see every connection refused
+        log.error("Proxy stopped after a problem accepting or polling connections", e);
+      }
+    } finally {
+      new ArrayList<>(connections).forEach(this::close);
+      try {
+        listener.close();
+        selector.close();
+      } catch (IOException e) {
+        log.warn("Problem closing proxy", e);
+      }
+      stopped.countDown();
+    }
+  }
+
+  private synchronized void revertIfDue(long now) {
+    if (revertTo != null && now - revertAt >= 0) {
+      faults = revertTo;
+      revertTo = null;
+      log.info("Proxy faults reverted to {}", faults);
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel client = listener.accept();
+    if (client == null) {
+      return;
+    }
+    int port = serverPort.getAsInt();
+    if (port <= 0) {
+      // not serving yet, which a client sees as a refused connection
+      client.close();
+      return;
+    }
+    client.configureBlocking(false);
+    client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    SocketChannel server = SocketChannel.open();
+    try {
+      server.configureBlocking(false);
+      server.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      Connection connection = new Connection(client, server);
+      client.register(selector, 0, connection);
+      if (server.connect(new InetSocketAddress(serverHost, port))) {
+        connection.connected = true;
+        server.register(selector, 0, connection);
+      } else {
+        server.register(selector, SelectionKey.OP_CONNECT, connection);
+      }
+      // only once both sides are registered, so a failure leaves nothing to close
+      connections.add(connection);
+      connectionCount = connections.size();
+    } catch (IOException e) {
+      client.close();
+      server.close();
+      log.debug("Unable to connect proxy to the server", e);
+    }
+  }
+
+  private void finishConnect(SelectionKey key) {
+    Connection connection = (Connection) key.attachment();
+    try {
+      connection.server.finishConnect();
+      connection.connected = true;
+      key.interestOps(0);
+    } catch (IOException e) {
+      log.debug("Unable to connect proxy to the server", e);
+      close(connection);
+    }
+  }
+
+  private void read(SelectionKey key, long now) {
+    Connection connection = (Connection) key.attachment();
+    SocketChannel channel = (SocketChannel) key.channel();
+    ByteBuffer data = ByteBuffer.allocate(CHUNK_BYTES);
+    int read;
+    try {
+      read = channel.read(data);
+    } catch (IOException e) {
+      read = -1;
+    }
+    Flow flow = connection.flowFrom(channel);
+    if (read < 0) {
+      // pass the end of the stream on once everything before it is delivered
+      flow.ended = true;
+      key.interestOps(0);
+      return;
+    }
+    Faults current = faults;
+    if (current.drop > 0 && random.nextDouble() < current.drop) {
+      log.debug("Dropping proxied connection");
+      close(connection);
+      return;
+    }
+    data.flip();
+    flow.add(data, now);
+  }
+
+  /**
+   * Write the data which is due, returning the time, in nanoseconds, until more is due.
+   */
+  private long deliver(long now) {
+    long next = TimeUnit.SECONDS.toNanos(1);
+    if (faults.partition) {
+      return next;
+    }
+    for (Connection connection : new ArrayList<>(connections)) {
+      for (Flow flow : new Flow[] {connection.up, connection.down}) {
+        try {
+          while (!flow.queue.isEmpty()) {
+            Chunk chunk = flow.queue.peek();
+            if (chunk.due - now > 0) {
+              next = Math.min(next, chunk.due - now);
+              break;
+            }
+            flow.queuedBytes -= flow.to.write(chunk.data);
+            if (chunk.data.hasRemaining()) {
+              // the peer isn't keeping up; try again shortly
+              next = Math.min(next, TimeUnit.MILLISECONDS.toNanos(1));
+              break;
+            }
+            flow.queue.poll();
+          }
+          if (flow.ended && flow.queue.isEmpty() && !flow.shutDown) {
+            flow.to.shutdownOutput();
+            flow.shutDown = true;
+          }
+        } catch (IOException e) {
+          close(connection, true);
+          break;
+        }
+      }
+      if (connection.up.shutDown && connection.down.shutDown) {
+        close(connection, false);
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Read from each side only while its data can be queued, and never during a partition.
+   */
+  private void updateInterest() {
+    boolean partition = faults.partition;
+    for (Connection connection : connections) {
+      if (!connection.connected) {
+        continue;
+      }
+      for (SocketChannel channel : new SocketChannel[] {connection.client, connection.server}) {
+        SelectionKey key = channel.keyFor(selector);
+        Flow flow = connection.flowFrom(channel);
+        if (key != null && key.isValid()) {
+          boolean read = !partition && !flow.ended && flow.queuedBytes < MAX_QUEUED_BYTES;
+          key.interestOps(read ? SelectionKey.OP_READ : 0);
+        }
+      }
+    }
+  }
+
+  private void close(Connection connection) {
+    close(connection, true);
+  }
+
+  /**
+   * Close both sides of the connection, either with a reset, as a network failure would, or
+   * cleanly, once both sides have ended their streams.
+   */
+  private void close(Connection connection, boolean reset) {
+    if (!connections.remove(connection)) {
+      return;
+    }
+    connectionCount = connections.size();
+    for (SocketChannel channel : new SocketChannel[] {connection.client, connection.server}) {
+      if (reset) {
+        try {
+          channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+        } catch (IOException e) {
+          // already closed
+        }
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // don't care
+      }
+    }
+  }
+
+  /**
+   * Stop the proxy, closing every connection, and wait briefly for its port to be released.
+   */
+  void close() throws InterruptedException {
+    closed = true;
+    selector.wakeup();
+    stopped.await(5, TimeUnit.SECONDS);
+  }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A {@link ZooKeeperLauncher} running on threads inside the Maven JVM, in its own class loader so
+ * that ZooKeeper and its dependencies are isolated from Maven and other plugins.
+ *
+ * <p>ZooKeeper's configuration is partly read from {@code zookeeper.*} system properties, which it
+ * also sets from unrecognized entries in {@code zoo.cfg}, and which are shared with the rest of the
+ * Maven JVM. They're saved before the first in-process server starts, and restored once the last
+ * one has stopped, so that one server's settings don't leak into later builds or servers.
+ */
+final class InProcessZooKeeper {
+
+  private static final String PROPERTY_PREFIX = "zookeeper.";
+
+  private static final ConcurrentHashMap<String, InProcessZooKeeper> running =
+      new ConcurrentHashMap<>();
+
+  // guarded by InProcessZooKeeper.class
+  private static Map<String, String> savedProperties;
+  private static int active;
+
+  private final URLClassLoader classLoader;
+  private final Object launcher;
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  private InProcessZooKeeper(URLClassLoader classLoader, Object launcher) {
+    this.classLoader = classLoader;
+    this.launcher = launcher;
+  }
+
+  /**
+   * Start a launcher in a new isolated class loader, without waiting for it to start serving.
+   */
+  static InProcessZooKeeper start(List<URL> classpath, String[] args)
+      throws MojoExecutionException {
+    // the platform class loader as parent hides Maven's and the plugin realm's classes
+    URLClassLoader loader = new URLClassLoader(classpath.toArray(new URL[0]),
+        ClassLoader.getPlatformClassLoader());
+    saveProperties();
+    Thread current = Thread.currentThread();
+    ClassLoader previous = current.getContextClassLoader();
+    // threads started by the launcher inherit this, so ZooKeeper loads plugins from the loader
+    current.setContextClassLoader(loader);
+    try {
+      Object launcher = loader.loadClass(ZooKeeperLauncher.class.getName())
+          .getConstructor(String[].class).newInstance((Object) args);
+      InProcessZooKeeper zk = new InProcessZooKeeper(loader, launcher);
+      boolean started = false;
+      try {
+        zk.invoke("start");
+        started = true;
+      } finally {
+        if (!started) {
+          zk.abort();
+        }
+      }
+      return zk;
+    } catch (ReflectiveOperationException e) {
+      close(loader);
+      restoreProperties();
+      throw new MojoExecutionException("Unable to launch ZooKeeper in-process", e);
+    } finally {
+      current.setContextClassLoader(previous);
+    }
+  }
+
+  /**
+   * Wait for the server to start serving, failing if it doesn't within the given timeout. The
+   * caller is responsible for aborting the server on failure.
+   */
+  void awaitServing(long timeout, TimeUnit unit) throws MojoExecutionException {
+    if (!(Boolean) invoke("awaitServing", timeout, unit)) {
+      checkFatalExit();
+      throw new MojoExecutionException(
+          "ZooKeeper did not start serving within " + unit.toSeconds(timeout) + " seconds");
+    }
+  }
+
+  /**
+   * Register this server under the given key, so it can later be stopped by
+   * {@link #remove(String)}. This is done once it is serving, when its ports are known.
+   */
+  void register(String key) throws MojoExecutionException {
+    if (running.putIfAbsent(key, this) != null) {
+      throw new MojoExecutionException("ZooKeeper is already running in-process for " + key);
+    }
+  }
+
+  int getClientPort() throws MojoExecutionException {
+    return (Integer) invoke("getClientPort");
+  }
+
+  int getShutdownPort() throws MojoExecutionException {
+    return (Integer) invoke("getShutdownPort");
+  }
+
+  int getProxyPort() throws MojoExecutionException {
+    return (Integer) invoke("getProxyPort");
+  }
+
+  /**
+   * The time, in milliseconds, taken by each phase of starting the server, once it is serving.
+   */
+  @SuppressWarnings("unchecked")
+  Map<String, Double> getStartupPhases() throws MojoExecutionException {
+    return (Map<String, Double>) invoke("getStartupPhases");
+  }
+
+  /**
+   * Return the in-process server registered under the given key, or null if there is none.
+   */
+  static InProcessZooKeeper get(String key) {
+    return running.get(key);
+  }
+
+  /**
+   * Close every client session of the server, returning the number closed.
+   */
+  int closeSessions() throws MojoExecutionException {
+    return (Integer) invoke("closeSessions");
+  }
+
+  /**
+   * Remove and return the in-process server registered under the given key, or null if there is
+   * none (for example, because it was forked instead).
+   */
+  static InProcessZooKeeper remove(String key) {
+    return running.remove(key);
+  }
+
+  /**
+   * Shut down the server directly, waiting up to the given number of seconds for it to stop. When
+   * not waiting, the server is still given a second to release its resources, without failing.
+   */
+  void stop(int waitSeconds) throws MojoExecutionException {
+    try {
+      invoke("shutdown");
+      boolean stopped =
+          (Boolean) invoke("awaitShutdown", (long) Math.max(waitSeconds, 1), TimeUnit.SECONDS);
+      if (!stopped && waitSeconds > 0) {
+        throw new MojoExecutionException(
+            "ZooKeeper did not shut down within " + waitSeconds + " seconds");
+      }
+      checkFatalExit();
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Fail if ZooKeeper requested to exit the JVM, which it does after a fatal error, and which was
+   * turned into a shutdown of the in-process server instead.
+   */
+  private void checkFatalExit() throws MojoExecutionException {
+    int code = (Integer) invoke("getFatalExitCode");
+    if (code >= 0) {
+      throw new MojoExecutionException("In-process ZooKeeper stopped after a fatal error, "
+          + "requesting to exit with code " + code + "; see its log for details");
+    }
+  }
+
+  /**
+   * Shut down the server without reporting any failure, such as when it failed to start.
+   */
+  void abort() {
+    running.values().remove(this);
+    try {
+      invoke("shutdown");
+      invoke("awaitShutdown", 5L, TimeUnit.SECONDS);
+    } catch (MojoExecutionException | RuntimeException e) {
+      // best effort; the server may never have started
+    } finally {
+      release();
+    }
+  }
+
+  private Object invoke(String name, Object... args) throws MojoExecutionException {
+    for (Method m : launcher.getClass().getMethods()) {
+      if (m.getName().equals(name) && m.getParameterCount() == args.length) {
+        try {
+          return m.invoke(launcher, args);
+        } catch (InvocationTargetException e) {
+          if (e.getCause() instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+          }
+          throw new MojoExecutionException("In-process ZooKeeper failed in " + name, e.getCause());
+        } catch (IllegalAccessException e) {
+          throw new MojoExecutionException("Unable to call " + name + " on launcher", e);
+        }
+      }
+    }
+    throw new MojoExecutionException("Launcher has no method named " + name);
+  }
+
+  private void release() {
+    if (closed.compareAndSet(false, true)) {
+      close(classLoader);
+      restoreProperties();
+    }
+  }
+
+  private static synchronized void saveProperties() {
+    if (active++ == 0) {
+      savedProperties = new HashMap<>();
+      System.getProperties().stringPropertyNames().stream()
+          .filter(name -> name.startsWith(PROPERTY_PREFIX))
+          .forEach(name -> savedProperties.put(name, System.getProperty(name)));
+    }
+  }
+
+  private static synchronized void restoreProperties() {
+    if (--active == 0) {
+      System.getProperties().stringPropertyNames().stream()
+          .filter(name -> name.startsWith(PROPERTY_PREFIX) && !savedProperties.containsKey(name))
+          .forEach(System::clearProperty);
+      savedProperties.forEach(System::setProperty);
+      savedProperties = null;
+    }
+  }
+
+  private static void close(URLClassLoader loader) {
+    try {
+      loader.close();
+    } catch (IOException e) {
+      // don't care
+    }
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the JSON reports of the plugin and its launcher, indented for reading, with the one
+ * {@link ObjectMapper} in each class loader.
+ */
+final class JsonReports {
+
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+  private JsonReports() {}
+
+  /**
+   * Write the given value, such as a map of maps, numbers, and strings, to the given file.
+   */
+  static void write(File file, Object value) throws IOException {
+    MAPPER.writeValue(file, value);
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+/**
+ * A histogram of latencies in microseconds, with buckets in the style of HdrHistogram: values
+ * below 128 are counted exactly, and larger values in buckets no wider than 1/64th of their value,
+ * so percentiles are accurate to within 2% with a small fixed amount of memory. It is not thread
+ * safe.
+ */
+final class LatencyHistogram {
+
+  // each power of two above the exact range is split into this many buckets
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int EXACT_VALUES = SUB_BUCKETS * 2;
+  // record at most about 12 days, in microseconds
+  private static final int MAX_VALUE_BITS = 40;
+  private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+  private final long[] counts = new long[index(MAX_VALUE) + 1];
+  private long count;
+  private long sum;
+  private long max;
+
+  /**
+   * Count one occurrence of the given latency.
+   */
+  void record(long micros) {
+    long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+    counts[index(value)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Add all of the values counted by another histogram to this one.
+   */
+  void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  long count() {
+    return count;
+  }
+
+  long max() {
+    return max;
+  }
+
+  double mean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * The latency which the given percentage of values are at or below, within the precision of
+   * the buckets.
+   */
+  long percentile(double percent) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalentValue(i), max);
+      }
+    }
+    return max;
+  }
+
+  private static int index(long value) {
+    if (value < EXACT_VALUES) {
+      return (int) value;
+    }
+    // shift the value so its highest bits select one of the sub-buckets for its power of two
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  private static long highestEquivalentValue(int index) {
+    if (index < EXACT_VALUES) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long lowest = (long) (index - shift * SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+
+/**
+ * The classpath of the launcher: the plugin and those of its dependencies which the server needs.
+ * The plugin's goals need others, such as YAML for fixtures, which the server never loads, and
+ * ZooKeeper only needs some when a feature is enabled, such as Jetty for the admin server. Leaving
+ * them out gives the launcher fewer jars to search for each class it loads.
+ *
+ * <p>A forked launcher finds its classpath in the manifest of a pathing jar, which is named for
+ * the jars it lists, and only written the first time, so it is unchanged for as long as they are,
+ * as the launcher's class data sharing archive requires.
+ */
+final class LauncherClasspath {
+
+  // only used by the plugin's goals, for YAML fixtures
+  private static final List<String> PLUGIN_ONLY =
+      Arrays.asList("org.yaml:", "com.fasterxml.jackson.dataformat:");
+
+  // only used by ZooKeeper's admin server, for HTTP; Jackson is also used for the metrics report
+  private static final List<String> ADMIN_SERVER =
+      Arrays.asList("org.eclipse.jetty:", "javax.servlet:");
+
+  private static final Map<String, List<File>> RESOLVED = new ConcurrentHashMap<>();
+
+  private LauncherClasspath() {}
+
+  /**
+   * The jars, or directories, on the launcher's classpath, with the admin server's dependencies
+   * only if it is enabled. They're resolved once for each plugin version, and whether the admin
+   * server is enabled, for as long as the plugin is loaded.
+   */
+  static List<File> resolve(PluginDescriptor plugin, boolean adminServer) {
+    String key = plugin.getVersion() + ":" + adminServer;
+    return RESOLVED.computeIfAbsent(key, k -> {
+      List<File> classpath = new ArrayList<>();
+      classpath.add(plugin.getPluginArtifact().getFile());
+      for (Artifact artifact : plugin.getArtifacts()) {
+        if ("jar".equals(artifact.getType()) && !"provided".equals(artifact.getScope())) {
+          String id = artifact.getGroupId() + ":" + artifact.getArtifactId();
+          if (!matches(PLUGIN_ONLY, id) && (adminServer || !matches(ADMIN_SERVER, id))) {
+            classpath.add(artifact.getFile());
+          }
+        }
+      }
+      return Collections.unmodifiableList(classpath);
+    });
+  }
+
+  private static boolean matches(List<String> prefixes, String id) {
+    return prefixes.stream().anyMatch(id::startsWith);
+  }
+
+  /**
+   * A jar in the given directory with only a manifest, whose {@code Class-Path} lists the given
+   * classpath, creating it if it doesn't exist yet.
+   */
+  static File pathingJar(File directory, String pluginVersion, List<File> classpath)
+      throws IOException {
+    MessageDigest digest = Digests.sha256();
+    Digests.updateFiles(digest, classpath);
+    StringBuilder path = new StringBuilder();
+    for (File file : classpath) {
+      // URIs of directories end with a slash, without which they would be taken for jars
+      path.append(path.length() == 0 ? "" : " ").append(file.getAbsoluteFile().toURI());
+    }
+    String hash = Digests.hex(digest, 8);
+    File jar = new File(directory, "launcher-" + pluginVersion + "-" + hash + ".jar");
+    if (jar.isFile()) {
+      return jar;
+    }
+    if (!directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Can't create directory " + directory.getAbsolutePath());
+    }
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, path.toString());
+    File written = new File(directory, jar.getName() + "." + UUID.randomUUID());
+    try {
+      try (OutputStream out = Files.newOutputStream(written.toPath())) {
+        // only the manifest
+        new JarOutputStream(out, manifest).close();
+      }
+      // replacing a jar written by another build at the same time would change its modification
+      // time, so keep whichever was first
+      Files.move(written.toPath(), jar.toPath());
+    } catch (IOException e) {
+      if (!jar.isFile()) {
+        throw e;
+      }
+    } finally {
+      Files.deleteIfExists(written.toPath());
+    }
+    return jar;
+  }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Runs a closed-loop workload against a ZooKeeper service: each session keeps a fixed number of
+ * asynchronous requests in flight, issuing a new request, chosen at random from a weighted mix of
+ * operations, as each one completes. Reads and updates go to a fixed set of keys, created before
+ * the run, while creates and deletes add and remove nodes of their own.
+ */
+final class LoadGenerator {
+
+  /**
+   * The operations which make up a workload.
+   */
+  enum Operation {
+    CREATE, GET, SET, DELETE, EXISTS, WATCH;
+
+    String label() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /**
+   * The latencies and errors of the requests started after the warmup.
+   */
+  static final class Result {
+
+    final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+    long watchEvents;
+    long elapsedNanos;
+
+    /**
+     * The latencies of every operation together.
+     */
+    LatencyHistogram total() {
+      LatencyHistogram total = new LatencyHistogram();
+      latencies.values().forEach(total::add);
+      return total;
+    }
+
+    long totalErrors() {
+      return errors.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * The number of requests completed each second.
+     */
+    double throughput(long requests) {
+      return elapsedNanos == 0 ? 0 : requests * 1e9 / elapsedNanos;
+    }
+  }
+
+  private final String root;
+  private final int keyCount;
+  private final byte[] value;
+  private final Operation[] operations;
+  private final int[] cumulativeWeights;
+  private final double[] keyCumulativeProbabilities;
+  private final LongAdder watchEvents = new LongAdder();
+  private final Phaser pending = new Phaser(1);
+  private volatile long measureStart;
+  private volatile long end;
+
+  /**
+   * Create a workload with the given operation weights, such as {@code get=80,set=20}, on the
+   * given number of keys under the root path. Keys are chosen either uniformly or from a Zipfian
+   * distribution, in which a few keys receive most of the requests.
+   */
+  LoadGenerator(String root, String mix, int keyCount, int valueSize, String distribution)
+      throws MojoExecutionException {
+    this.root = root;
+    this.keyCount = keyCount;
+    this.value = new byte[valueSize];
+    new SplittableRandom(0).nextBytes(value);
+    Map<Operation, Integer> weights = parseMix(mix);
+    operations = weights.keySet().toArray(new Operation[0]);
+    cumulativeWeights = new int[operations.length];
+    int total = 0;
+    for (int i = 0; i < operations.length; i++) {
+      total += weights.get(operations[i]);
+      cumulativeWeights[i] = total;
+    }
+    if (total <= 0) {
+      throw new MojoExecutionException("The workload must include at least one operation");
+    }
+    if ("zipfian".equals(distribution)) {
+      keyCumulativeProbabilities = zipfian(keyCount);
+    } else if ("uniform".equals(distribution)) {
+      keyCumulativeProbabilities = null;
+    } else {
+      throw new MojoExecutionException(
+          "keyDistribution must be uniform or zipfian, but was " + distribution);
+    }
+  }
+
+  private static Map<Operation, Integer> parseMix(String mix) throws MojoExecutionException {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      try {
+        if (parts.length != 2) {
+          throw new IllegalArgumentException();
+        }
+        Operation op = Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+        int weight = Integer.parseInt(parts[1].trim());
+        if (weight < 0) {
+          throw new IllegalArgumentException();
+        }
+        if (weight > 0) {
+          weights.put(op, weight);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new MojoExecutionException("Bad workload entry '" + entry.trim()
+            + "'; expected operation=weight, where operation is one of "
+            + Arrays.toString(Operation.values()).toLowerCase(Locale.ROOT));
+      }
+    }
+    return weights;
+  }
+
+  private static double[] zipfian(int keyCount) {
+    // the conventional exponent for key popularity, as used by YCSB
+    double[] cumulative = new double[keyCount];
+    double sum = 0;
+    for (int i = 0; i < keyCount; i++) {
+      sum += 1 / Math.pow(i + 1, 0.99);
+      cumulative[i] = sum;
+    }
+    for (int i = 0; i < keyCount; i++) {
+      cumulative[i] /= sum;
+    }
+    return cumulative;
+  }
+
+  /**
+   * Create the root and the keys, run the workload on the given sessions, with the given number of
+   * requests in flight on each, then delete everything the workload created.
+   */
+  Result run(List<ZooKeeper> sessions, int inFlight, long warmup, long duration, TimeUnit unit)
+      throws MojoExecutionException {
+    MultiPipeline setup =
+        new MultiPipeline(sessions, inFlight, (op, code) -> code == Code.NODEEXISTS);
+    setup.submit(Arrays.asList(Op.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE,
+        CreateMode.PERSISTENT)));
+    setup.await();
+    // stay well below ZooKeeper's default jute.maxbuffer for a single multi() request
+    int batchSize = Math.max(1, Math.min(1000, 512 * 1024 / Math.max(value.length, 1)));
+    List<Op> batch = new ArrayList<>();
+    for (int i = 0; i < keyCount; i++) {
+      batch.add(Op.create(key(i), value, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+      if (batch.size() == batchSize || i == keyCount - 1) {
+        setup.submit(batch);
+        batch = new ArrayList<>();
+      }
+    }
+    setup.await();
+
+    List<Client> clients = new ArrayList<>();
+    for (int i = 0; i < sessions.size(); i++) {
+      clients.add(new Client(sessions.get(i), i));
+    }
+    try {
+      long start = System.nanoTime();
+      measureStart = start + unit.toNanos(warmup);
+      end = measureStart + unit.toNanos(duration);
+      for (Client client : clients) {
+        client.begin(inFlight);
+      }
+      // each request registers the next before it arrives, so this waits for the last request
+      pending.arriveAndAwaitAdvance();
+      long finished = System.nanoTime();
+
+      Result result = new Result();
+      result.elapsedNanos = finished - measureStart;
+      result.watchEvents = watchEvents.sum();
+      for (Client client : clients) {
+        client.latencies.forEach((op, histogram) -> result.latencies
+            .computeIfAbsent(op, k -> new LatencyHistogram()).add(histogram));
+        client.errors.forEach((op, count) -> result.errors.merge(op, count, Long::sum));
+      }
+      return result;
+    } finally {
+      cleanUp(sessions, inFlight, clients);
+    }
+  }
+
+  private void cleanUp(List<ZooKeeper> sessions, int inFlight, List<Client> clients)
+      throws MojoExecutionException {
+    MultiPipeline cleanup =
+        new MultiPipeline(sessions, inFlight, (op, code) -> code == Code.NONODE);
+    List<String> paths = new ArrayList<>();
+    for (Client client : clients) {
+      synchronized (client) {
+        paths.addAll(client.created);
+      }
+    }
+    for (int i = 0; i < keyCount; i++) {
+      paths.add(key(i));
+    }
+    for (int i = 0; i < paths.size(); i += 1000) {
+      List<Op> deletes = new ArrayList<>();
+      paths.subList(i, Math.min(i + 1000, paths.size()))
+          .forEach(path -> deletes.add(Op.delete(path, -1)));
+      cleanup.submit(deletes);
+    }
+    cleanup.await();
+    cleanup.submit(Arrays.asList(Op.delete(root, -1)));
+    cleanup.await();
+  }
+
+  private String key(int index) {
+    return root + "/key-" + index;
+  }
+
+  /**
+   * A session's share of the workload. Its requests are issued from whichever thread completed the
+   * previous one, so its state is guarded by its own lock.
+   */
+  private final class Client {
+
+    private final ZooKeeper zk;
+    private final int id;
+    private final SplittableRandom random;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+    private final ArrayDeque<String> created = new ArrayDeque<>();
+    private final Watcher watcher = event -> watchEvents.increment();
+    private long sequence;
+
+    Client(ZooKeeper zk, int id) {
+      this.zk = zk;
+      this.id = id;
+      this.random = new SplittableRandom(id);
+    }
+
+    synchronized void begin(int inFlight) {
+      for (int i = 0; i < inFlight; i++) {
+        issue();
+      }
+    }
+
+    private synchronized void complete(Operation op, long started, int rc, String createdPath) {
+      long now = System.nanoTime();
+      if (createdPath != null && rc == Code.OK.intValue()) {
+        created.add(createdPath);
+      }
+      if (started - measureStart >= 0) {
+        if (rc == Code.OK.intValue()) {
+          latencies.computeIfAbsent(op, k -> new LatencyHistogram())
+              .record(TimeUnit.NANOSECONDS.toMicros(now - started));
+        } else {
+          errors.merge(op, 1L, Long::sum);
+        }
+      }
+      if (now - end < 0) {
+        issue();
+      }
+      pending.arriveAndDeregister();
+    }
+
+    private void issue() {
+      pending.register();
+      Operation op = nextOperation();
+      if (op == Operation.DELETE && created.isEmpty()) {
+        // nothing of this session's is left to delete, so create something to delete later
+        op = Operation.CREATE;
+      }
+      final Operation issued = op;
+      final long started = System.nanoTime();
+      switch (issued) {
+        case CREATE:
+          zk.create(root + "/node-" + id + "-" + sequence++, value, Ids.OPEN_ACL_UNSAFE,
+              CreateMode.PERSISTENT, (rc, path, ctx, name) -> complete(issued, started, rc, name),
+              null);
+          break;
+        case DELETE:
+          zk.delete(created.poll(), -1, (rc, path, ctx) -> complete(issued, started, rc, null),
+              null);
+          break;
+        case GET:
+          zk.getData(nextKey(), false,
+              (rc, path, ctx, data, stat) -> complete(issued, started, rc, null), null);
+          break;
+        case WATCH:
+          zk.getData(nextKey(), watcher,
+              (rc, path, ctx, data, stat) -> complete(issued, started, rc, null), null);
+          break;
+        case SET:
+          zk.setData(nextKey(), value, -1,
+              (rc, path, ctx, stat) -> complete(issued, started, rc, null), null);
+          break;
+        case EXISTS:
+          zk.exists(nextKey(), false,
+              (rc, path, ctx, stat) -> complete(issued, started, rc, null), null);
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation " + issued);
+      }
+    }
+
+    private Operation nextOperation() {
+      int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+      for (int i = 0; i < cumulativeWeights.length; i++) {
+        if (pick < cumulativeWeights[i]) {
+          return operations[i];
+        }
+      }
+      return operations[operations.length - 1];
+    }
+
+    private String nextKey() {
+      if (keyCumulativeProbabilities == null) {
+        return key(random.nextInt(keyCount));
+      }
+      int index = Arrays.binarySearch(keyCumulativeProbabilities, random.nextDouble());
+      return key(Math.min(index < 0 ? -index - 1 : index, keyCount - 1));
+    }
+  }
+
+}
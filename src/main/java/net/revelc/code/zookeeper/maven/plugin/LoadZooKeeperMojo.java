@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import net.revelc.code.zookeeper.maven.plugin.ZnodeFixture.Znode;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Loads trees of znodes from JSON or YAML fixture files into the running ZooKeeper server.
+ */
+@Mojo(name = "load", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST, threadSafe = true)
+public class LoadZooKeeperMojo extends AbstractZooKeeperMojo {
+
+  // stay well below ZooKeeper's default jute.maxbuffer for a single multi() request
+  private static final int MAX_BATCH_BYTES = 512 * 1024;
+
+  /**
+   * The JSON or YAML files (by extension) containing the znodes to create. Nodes are created in
+   * order of depth, so parents always exist before their children. Ephemeral nodes are owned by a
+   * session which is kept open until the {@code stop} goal runs, or the build ends.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "fixtures", property = "zmp.fixtures", required = true)
+  protected List<File> fixtures;
+
+  /**
+   * The number of client sessions across which the creates are spread.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "loadSessions", property = "zmp.loadSessions", defaultValue = "4")
+  protected int loadSessions;
+
+  /**
+   * The maximum number of creates in each {@code multi()} transaction.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "batchSize", property = "zmp.batchSize", defaultValue = "1000")
+  protected int batchSize;
+
+  /**
+   * The maximum number of {@code multi()} transactions in flight at once, across all sessions.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "maxInFlight", property = "zmp.maxInFlight", defaultValue = "32")
+  protected int maxInFlight;
+
+  /**
+   * Leave nodes which already exist unchanged, instead of failing the build. Missing ancestors
+   * which were not listed in a fixture are never considered an error if they already exist.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "ignoreExisting", property = "zmp.ignoreExisting", defaultValue = "false")
+  protected boolean ignoreExisting;
+
+  @Override
+  protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    resolvePorts();
+    if (batchSize < 1 || maxInFlight < 1) {
+      throw new MojoExecutionException("batchSize and maxInFlight must be at least 1");
+    }
+    final long start = System.nanoTime();
+    Map<String, Znode> nodes = ZnodeFixture.read(fixtures);
+
+    TreeMap<Integer, List<Znode>> levels = new TreeMap<>();
+    List<Znode> ephemerals = new ArrayList<>();
+    for (Znode node : nodes.values()) {
+      if (node.mode.isEphemeral()) {
+        ephemerals.add(node);
+      } else {
+        levels.computeIfAbsent(node.depth(), d -> new ArrayList<>()).add(node);
+      }
+    }
+    BiPredicate<Op, Code> ignore = (op, code) -> code == Code.NODEEXISTS
+        && (ignoreExisting || nodes.containsKey(op.getPath()) && nodes.get(op.getPath()).implicit);
+
+    String restored = project.getProperties().getProperty(RESTORED_STATE_PROPERTY);
+    if (restored != null && restored.equals(StateArchive.key(nodes))) {
+      // the start goal restored the state which these fixtures produced, except for ephemerals
+      getLog().info("Znodes from these fixtures were restored from captured state; creating "
+          + ephemerals.size() + " ephemeral znodes only");
+      levels.clear();
+    } else {
+      getLog().info("Loading " + nodes.size() + " znodes into ZooKeeper at " + connectString());
+    }
+    List<ZooKeeper> sessions = levels.isEmpty() ? Collections.emptyList()
+        : ZooKeeperClients.connect(connectString(), Math.max(loadSessions, 1),
+            ZooKeeperClients.CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    try {
+      MultiPipeline pipeline = new MultiPipeline(sessions, maxInFlight, ignore);
+      for (List<Znode> level : levels.values()) {
+        submit(pipeline, level, batchSize);
+        // wait for each level, so the parents of the next level exist
+        pipeline.await();
+      }
+    } finally {
+      ZooKeeperClients.close(sessions);
+    }
+    createEphemerals(connectString(), retainKey(), ephemerals, ignore, batchSize, maxInFlight);
+
+    getLog().info("Loaded " + nodes.size() + " znodes in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+  }
+
+  /**
+   * Create the given ephemeral nodes from a single session, which is kept open until the
+   * {@code stop} goal runs, or the build ends.
+   */
+  static void createEphemerals(String connectString, String retainKey, List<Znode> ephemerals,
+      BiPredicate<Op, Code> ignore, int batchSize, int maxInFlight)
+      throws MojoExecutionException {
+    if (ephemerals.isEmpty()) {
+      return;
+    }
+    ZooKeeper owner = ZooKeeperClients.connect(connectString,
+        ZooKeeperClients.CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    try {
+      MultiPipeline pipeline =
+          new MultiPipeline(Collections.singletonList(owner), maxInFlight, ignore);
+      submit(pipeline, ephemerals, batchSize);
+      pipeline.await();
+    } catch (MojoExecutionException e) {
+      ZooKeeperClients.close(owner);
+      throw e;
+    }
+    ZooKeeperClients.retain(retainKey, owner);
+  }
+
+  private static void submit(MultiPipeline pipeline, Collection<Znode> nodes, int batchSize)
+      throws MojoExecutionException {
+    List<Op> batch = new ArrayList<>();
+    int batchBytes = 0;
+    for (Znode node : nodes) {
+      int size = node.path.length() + node.data.length + 64;
+      if (!batch.isEmpty() && (batch.size() >= batchSize || batchBytes + size > MAX_BATCH_BYTES)) {
+        pipeline.submit(batch);
+        batch = new ArrayList<>();
+        batchBytes = 0;
+      }
+      batch.add(Op.create(node.path, node.data, node.acl, node.mode));
+      batchBytes += size;
+    }
+    pipeline.submit(batch);
+  }
+
+}
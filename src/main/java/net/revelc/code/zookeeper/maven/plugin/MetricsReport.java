@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.zookeeper.server.ServerMetrics;
+
+/**
+ * Writes the values of every metric of the server running in this class loader, as JSON and as
+ * CSV, so the load a build put on ZooKeeper can be examined after the server has stopped.
+ */
+final class MetricsReport {
+
+  static final String JSON_FILE = "zkServer.metrics.json";
+  static final String CSV_FILE = "zkServer.metrics.csv";
+
+  private MetricsReport() {}
+
+  /**
+   * Write the report to the given directory, returning the number of metrics written. This must
+   * be called before the server shuts down, since its metrics are discarded when it stops.
+   */
+  static int write(File directory) throws IOException {
+    Map<String, Object> metrics = values();
+    if (metrics.isEmpty()) {
+      return 0;
+    }
+    // numbers which aren't finite are written as strings
+    JsonReports.write(new File(directory, JSON_FILE), metrics);
+    try (PrintWriter csv = new PrintWriter(
+        Files.newBufferedWriter(new File(directory, CSV_FILE).toPath(), UTF_8))) {
+      csv.println("metric,value");
+      metrics.forEach((name, value) -> csv.println(name + "," + csvValue(value)));
+    }
+    return metrics.size();
+  }
+
+  /**
+   * The current value of every metric, sorted by name.
+   */
+  static Map<String, Object> values() {
+    Map<String, Object> metrics = new TreeMap<>();
+    ServerMetrics.getMetrics().getMetricsProvider().dump(metrics::put);
+    return metrics;
+  }
+
+  private static String csvValue(Object value) {
+    String text = String.valueOf(value);
+    if (text.contains(",") || text.contains("\"") || text.contains("\n")) {
+      return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+    return text;
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Submits batches of operations as asynchronous {@code multi()} transactions, spread across several
+ * sessions, with a bounded number of transactions in flight at once.
+ *
+ * <p>A batch which fails only because of an error the caller has chosen to ignore (for example, a
+ * node which already exists) is retried one operation at a time, so the remaining operations are
+ * still applied. The operations applied are counted, so those skipped aren't.
+ */
+final class MultiPipeline {
+
+  private final List<ZooKeeper> sessions;
+  private final Semaphore inFlight;
+  private final BiPredicate<Op, Code> ignore;
+  private final AtomicInteger next = new AtomicInteger();
+  private final AtomicInteger applied = new AtomicInteger();
+  // counted rather than registered with a Phaser, which allows only 65535 parties, as every
+  // operation of every batch in flight can be retried at once
+  private int pending;
+  private final AtomicReference<KeeperException> failure = new AtomicReference<>();
+
+  MultiPipeline(List<ZooKeeper> sessions, int maxInFlight, BiPredicate<Op, Code> ignore) {
+    this.sessions = sessions;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.ignore = ignore;
+  }
+
+  /**
+   * Submit a batch of operations, blocking only while the maximum number of batches are in flight.
+   */
+  void submit(List<Op> ops) throws MojoExecutionException {
+    if (ops.isEmpty()) {
+      return;
+    }
+    checkFailure();
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("interrupted", e);
+    }
+    send(ops, true);
+  }
+
+  /**
+   * Wait for all submitted batches to complete, failing if any of them failed.
+   */
+  void await() throws MojoExecutionException {
+    synchronized (this) {
+      try {
+        while (pending > 0) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("interrupted", e);
+      }
+    }
+    checkFailure();
+  }
+
+  /**
+   * The number of operations applied so far, by batches which succeeded, whole or retried.
+   */
+  int applied() {
+    return applied.get();
+  }
+
+  private void send(List<Op> ops, boolean permit) {
+    synchronized (this) {
+      pending++;
+    }
+    ZooKeeper zk = sessions.get(Math.floorMod(next.getAndIncrement(), sessions.size()));
+    zk.multi(ops, (rc, path, ctx, results) -> {
+      try {
+        handle(ops, Code.get(rc), results);
+      } finally {
+        if (permit) {
+          inFlight.release();
+        }
+        // any retries were sent first, so this only reaches zero once they complete too
+        synchronized (this) {
+          if (--pending == 0) {
+            notifyAll();
+          }
+        }
+      }
+    }, null);
+  }
+
+  private void handle(List<Op> ops, Code code, List<OpResult> results) {
+    if (code == Code.OK) {
+      applied.addAndGet(ops.size());
+      return;
+    }
+    // find the operation which caused the transaction to fail
+    Op failed = ops.get(0);
+    if (results != null) {
+      for (int i = 0; i < results.size() && i < ops.size(); i++) {
+        OpResult result = results.get(i);
+        if (result instanceof OpResult.ErrorResult) {
+          int err = ((OpResult.ErrorResult) result).getErr();
+          if (err != Code.OK.intValue() && err != Code.RUNTIMEINCONSISTENCY.intValue()) {
+            failed = ops.get(i);
+            break;
+          }
+        }
+      }
+    }
+    if (ignore.test(failed, code)) {
+      if (ops.size() > 1) {
+        // retry individually, without taking more permits, since this runs on a callback thread
+        ops.forEach(op -> send(Collections.singletonList(op), false));
+      }
+      return;
+    }
+    failure.compareAndSet(null, KeeperException.create(code, failed.getPath()));
+  }
+
+  private void checkFailure() throws MojoExecutionException {
+    KeeperException e = failure.get();
+    if (e != null) {
+      throw new MojoExecutionException("ZooKeeper operation failed: " + e.getMessage(), e);
+    }
+  }
+
+}
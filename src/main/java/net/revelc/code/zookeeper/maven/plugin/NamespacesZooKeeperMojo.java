@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.Quotas;
+import org.apache.zookeeper.StatsTrack;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Creates empty, numbered namespaces in the running ZooKeeper server, such as {@code /fork-1} to
+ * {@code /fork-8}, so that each test JVM forked by Failsafe can work in its own, through a
+ * connect string ending in a chroot path, without sharing paths with the others. The connect
+ * string, without the number, is published as the {@code zmp.namespaceConnectString} property,
+ * though Failsafe's configuration must spell out the prefix, as in
+ * {@code ${zmp.connectString}/fork-${surefire.forkNumber}}: Maven replaces a property it can't
+ * resolve with {@code null} when it directly follows another.
+ */
+@Mojo(name = "namespaces", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST, threadSafe = true)
+public class NamespacesZooKeeperMojo extends AbstractZooKeeperMojo {
+
+  /**
+   * The number of namespaces to create, numbered from 1, as Failsafe numbers its forks. Zero
+   * creates one for each available processor, as a {@code forkCount} of {@code 1C} would use.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "namespaces", property = "zmp.namespaces", defaultValue = "0")
+  protected int namespaces;
+
+  /**
+   * The path of each namespace, without its number. It must be a top-level znode.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "namespacePrefix", property = "zmp.namespacePrefix", defaultValue = "/fork-")
+  protected String namespacePrefix;
+
+  /**
+   * The maximum number of znodes in each namespace, including the namespace itself, as a hard
+   * quota. Zero sets no limit. ZooKeeper only enforces hard quotas when it runs with the
+   * {@code zookeeper.enforceQuota} system property set to true.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "namespaceMaxNodes", property = "zmp.namespaceMaxNodes", defaultValue = "0")
+  protected long namespaceMaxNodes;
+
+  /**
+   * The maximum number of bytes of data in each namespace, as a hard quota. Zero sets no limit.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "namespaceMaxBytes", property = "zmp.namespaceMaxBytes", defaultValue = "0")
+  protected long namespaceMaxBytes;
+
+  @Override
+  protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    resolvePorts();
+    checkPrefix(namespacePrefix);
+    if (namespaces < 0 || namespaceMaxNodes < 0 || namespaceMaxBytes < 0) {
+      throw new MojoExecutionException(
+          "namespaces, namespaceMaxNodes, and namespaceMaxBytes can't be negative");
+    }
+    int count = namespaces == 0 ? Runtime.getRuntime().availableProcessors() : namespaces;
+    final long start = System.nanoTime();
+    List<String> paths = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      paths.add(namespacePrefix + i);
+    }
+
+    ZooKeeper zk = ZooKeeperClients.connect(connectString(),
+        ZooKeeperClients.CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    int deleted;
+    try {
+      // namespaces left by an earlier run, such as on a shared service, start out empty too
+      deleted = ZnodeReset.delete(connectString(), existing(zk, paths));
+      StatsTrack quota = new StatsTrack();
+      if (namespaceMaxNodes > 0) {
+        quota.setCountHardLimit(namespaceMaxNodes);
+      }
+      if (namespaceMaxBytes > 0) {
+        quota.setByteHardLimit(namespaceMaxBytes);
+      }
+      MultiPipeline pipeline =
+          new MultiPipeline(Collections.singletonList(zk), 1, (op, code) -> false);
+      List<Op> creates = new ArrayList<>();
+      for (String path : paths) {
+        creates.add(Op.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        if (namespaceMaxNodes > 0 || namespaceMaxBytes > 0) {
+          creates.addAll(quotaOps(path, quota));
+        }
+      }
+      pipeline.submit(creates);
+      pipeline.await();
+    } catch (KeeperException e) {
+      throw new MojoExecutionException("Unable to look for existing namespaces", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("interrupted", e);
+    } finally {
+      ZooKeeperClients.close(zk);
+    }
+
+    String namespaceConnectString = connectString() + namespacePrefix;
+    project.getProperties().setProperty(NAMESPACE_CONNECT_STRING_PROPERTY, namespaceConnectString);
+    getLog().info("Created " + count + " namespaces " + namespacePrefix + "1 to " + namespacePrefix
+        + count + (deleted > 0 ? ", after deleting " + deleted + " znodes left in them," : "")
+        + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms; connect with "
+        + namespaceConnectString + "${surefire.forkNumber}");
+  }
+
+  /**
+   * Create the nodes which set a quota on the given top-level znode, as ZooKeeper's
+   * {@code setquota} command does. The server starts tracking the quota's usage when its stats
+   * node is created.
+   */
+  private static List<Op> quotaOps(String path, StatsTrack quota) {
+    StatsTrack usage = new StatsTrack();
+    usage.setCount(0);
+    usage.setBytes(0L);
+    String quotaPath = Quotas.quotaPath(path);
+    return Arrays.asList(
+        Op.create(quotaPath, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT),
+        Op.create(Quotas.limitPath(path), quota.getStatsBytes(), Ids.OPEN_ACL_UNSAFE,
+            CreateMode.PERSISTENT),
+        Op.create(Quotas.statPath(path), usage.getStatsBytes(), Ids.OPEN_ACL_UNSAFE,
+            CreateMode.PERSISTENT));
+  }
+
+  static void checkPrefix(String prefix) throws MojoExecutionException {
+    if (prefix == null || !prefix.matches("/[^/]+")) {
+      throw new MojoExecutionException(
+          "namespacePrefix must be the path of a top-level znode, such as /fork-, but was "
+              + prefix);
+    }
+  }
+
+  /**
+   * The given znodes which exist, with the quota nodes of any which have quotas.
+   */
+  static List<String> existing(ZooKeeper zk, List<String> paths)
+      throws KeeperException, InterruptedException {
+    List<String> found = new ArrayList<>();
+    for (String path : paths) {
+      for (String node : new String[] {path, Quotas.quotaPath(path)}) {
+        if (zk.exists(node, false) != null) {
+          found.add(node);
+        }
+      }
+    }
+    return found;
+  }
+
+}
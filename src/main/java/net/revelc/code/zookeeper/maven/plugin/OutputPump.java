@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Drains the merged output of a forked launcher for as long as it runs, so that the launcher never
+ * blocks on a full pipe, while watching for the token it prints once the server is serving. The
+ * output goes to a sink, such as a size-capped set of rotating files, or the Maven log.
+ */
+final class OutputPump implements Runnable {
+
+  /**
+   * A destination for the lines of output.
+   */
+  interface Sink extends Closeable {
+
+    void write(String line) throws IOException;
+
+    /**
+     * Called when no more output is available for now, so that a sink can write in batches.
+     */
+    default void flush() throws IOException {}
+
+    @Override
+    default void close() throws IOException {}
+  }
+
+  private final InputStream input;
+  private final String token;
+  private final Sink sink;
+  private final CompletableFuture<String> tokenSeen = new CompletableFuture<>();
+
+  private OutputPump(InputStream input, String token, Sink sink) {
+    this.input = input;
+    this.token = token;
+    this.sink = sink;
+  }
+
+  /**
+   * Start pumping the given output to the sink in a daemon thread, returning the line with the
+   * token, or null if the output ends before the token appears.
+   */
+  static CompletableFuture<String> start(InputStream input, String token, Sink sink,
+      String threadName) {
+    OutputPump pump = new OutputPump(input, token, sink);
+    Thread thread = new Thread(pump, threadName);
+    thread.setDaemon(true);
+    thread.start();
+    return pump.tokenSeen;
+  }
+
+  @Override
+  public void run() {
+    Sink out = sink;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, UTF_8))) {
+      for (String line; (line = reader.readLine()) != null;) {
+        if (!tokenSeen.isDone() && line.contains("Token: " + token)) {
+          tokenSeen.complete(line);
+        }
+        try {
+          out.write(line);
+          if (!reader.ready()) {
+            out.flush();
+          }
+        } catch (IOException e) {
+          // keep draining, even though the output can no longer be kept
+          closeQuietly(out);
+          out = discarded -> {};
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      tokenSeen.completeExceptionally(e);
+    } finally {
+      tokenSeen.complete(null);
+      closeQuietly(out);
+    }
+  }
+
+  private static void closeQuietly(Sink out) {
+    try {
+      out.close();
+    } catch (IOException e) {
+      // don't care
+    }
+  }
+
+  /**
+   * A sink which writes to the given file until it would grow beyond the given size, then renames
+   * it with the suffix {@code .1}, shifting older files up to the given total number of files, and
+   * starts again. Any output from an earlier launcher is replaced.
+   */
+  static Sink rotatingFiles(File file, long maxBytes, int files) throws IOException {
+    // rotated files are numbered without gaps
+    for (int i = 1; Files.deleteIfExists(rotated(file, i).toPath()); i++) {
+      continue;
+    }
+    return new RotatingFiles(file, maxBytes, files);
+  }
+
+  private static File rotated(File file, int index) {
+    return index == 0 ? file : new File(file.getPath() + "." + index);
+  }
+
+  private static final class RotatingFiles implements Sink {
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(UTF_8);
+
+    private final File file;
+    private final long maxBytes;
+    private final int files;
+    private OutputStream out;
+    private long written;
+
+    RotatingFiles(File file, long maxBytes, int files) throws IOException {
+      this.file = file;
+      this.maxBytes = maxBytes;
+      this.files = files;
+      this.out = new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    @Override
+    public void write(String line) throws IOException {
+      byte[] bytes = line.getBytes(UTF_8);
+      long length = bytes.length + NEWLINE.length;
+      if (written > 0 && written + length > maxBytes) {
+        rotate();
+      }
+      out.write(bytes);
+      out.write(NEWLINE);
+      written += length;
+    }
+
+    private void rotate() throws IOException {
+      out.close();
+      for (int i = files - 1; i > 0; i--) {
+        File older = rotated(file, i - 1);
+        if (older.exists()) {
+          Files.move(older.toPath(), rotated(file, i).toPath(),
+              StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      out = new BufferedOutputStream(new FileOutputStream(file));
+      written = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+}
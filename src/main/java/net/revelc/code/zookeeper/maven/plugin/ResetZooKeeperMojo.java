@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Deletes all znodes from the running ZooKeeper server, except for ZooKeeper's own, without
+ * restarting it.
+ */
+@Mojo(name = "reset", threadSafe = true)
+public class ResetZooKeeperMojo extends AbstractZooKeeperMojo {
+
+  /**
+   * The number of client sessions across which the listing and deleting of znodes is spread.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "resetSessions", property = "zmp.resetSessions", defaultValue = "4")
+  protected int resetSessions;
+
+  /**
+   * The maximum number of deletes in each {@code multi()} transaction.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "batchSize", property = "zmp.batchSize", defaultValue = "1000")
+  protected int batchSize;
+
+  /**
+   * The maximum number of requests in flight at once, across all sessions.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "maxInFlight", property = "zmp.maxInFlight", defaultValue = "32")
+  protected int maxInFlight;
+
+  /**
+   * Also close client sessions left open, such as those kept open by the {@code load} goal to own
+   * ephemeral nodes, along with the sessions of any other clients.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "closeSessions", property = "zmp.closeSessions", defaultValue = "false")
+  protected boolean closeSessions;
+
+  @Override
+  protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    resolvePorts();
+    final long start = System.nanoTime();
+    if (closeSessions) {
+      closeSessions();
+    }
+    int deleted = ZnodeReset.run(connectString(), resetSessions, batchSize, maxInFlight);
+    getLog().info("Deleted " + deleted + " znodes in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+  }
+
+  private void closeSessions() throws MojoExecutionException {
+    ZooKeeperClients.closeRetained(retainKey());
+    int closed = 0;
+    for (int node = 0; node < servers; node++) {
+      InProcessZooKeeper inProcess = InProcessZooKeeper.get(instanceKey(node));
+      if (inProcess != null) {
+        closed += inProcess.closeSessions();
+        continue;
+      }
+      // a forked server closes its sessions when asked on its control channel
+      String response;
+      try {
+        response = ZooKeeperClients.control(clientPortAddress, shutdownPort + node,
+            "close-sessions", (int) TimeUnit.SECONDS.toMillis(
+                ZooKeeperClients.CONNECT_TIMEOUT_SECONDS)).trim();
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to close the client sessions of ZooKeeper at "
+            + clientPortAddress + ":" + (clientPort + node), e);
+      }
+      if (!response.startsWith("closed ")) {
+        throw new MojoExecutionException("Unable to close the client sessions of ZooKeeper at "
+            + clientPortAddress + ":" + (clientPort + node) + ": " + response);
+      }
+      closed += Integer.parseInt(response.substring("closed ".length()));
+    }
+    getLog().info("Closed " + closed + " client sessions");
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * An exclusively locked lease file, which records who is using a ZooKeeper service shared by
+ * several projects. The lock is held both within this JVM, for parallel builds, and against other
+ * processes, until the lease is closed. An empty lease file means the service isn't running.
+ */
+final class SharedLease implements AutoCloseable {
+
+  private static final ConcurrentHashMap<String, ReentrantLock> jvmLocks =
+      new ConcurrentHashMap<>();
+
+  private final File file;
+  private final ReentrantLock jvmLock;
+  private final FileChannel channel;
+  private final FileLock fileLock;
+
+  private SharedLease(File file, ReentrantLock jvmLock, FileChannel channel, FileLock fileLock) {
+    this.file = file;
+    this.jvmLock = jvmLock;
+    this.channel = channel;
+    this.fileLock = fileLock;
+  }
+
+  /**
+   * Wait for exclusive access to the lease file, creating it if it doesn't exist.
+   */
+  static SharedLease acquire(File file) throws MojoExecutionException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.mkdirs() && !parent.isDirectory()) {
+      throw new MojoExecutionException("Can't create lease directory: " + parent);
+    }
+    // a FileLock can't be taken twice in one JVM, so threads must take turns first
+    ReentrantLock jvmLock =
+        jvmLocks.computeIfAbsent(file.getAbsolutePath(), k -> new ReentrantLock());
+    jvmLock.lock();
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      return new SharedLease(file, jvmLock, channel, channel.lock());
+    } catch (IOException e) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e2) {
+          e.addSuppressed(e2);
+        }
+      }
+      jvmLock.unlock();
+      throw new MojoExecutionException("Unable to lock " + file.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Read the lease, which is empty if there is none.
+   */
+  Properties read() throws MojoExecutionException {
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+        // keep reading until the buffer is full
+      }
+      buffer.flip();
+      Properties lease = new Properties();
+      lease.load(new StringReader(UTF_8.decode(buffer).toString()));
+      return lease;
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to read " + file.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Replace the lease; writing an empty lease marks the service as no longer running.
+   */
+  void write(Properties lease) throws MojoExecutionException {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      if (!lease.isEmpty()) {
+        try (Writer writer = new OutputStreamWriter(bytes, UTF_8)) {
+          lease.store(writer, null);
+        }
+      }
+      channel.truncate(0);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, buffer.position());
+      }
+      channel.force(false);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to write " + file.getAbsolutePath(), e);
+    }
+  }
+
+  @Override
+  public void close() throws MojoExecutionException {
+    try {
+      fileLock.release();
+      channel.close();
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to unlock " + file.getAbsolutePath(), e);
+    } finally {
+      jvmLock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.lang.reflect.Field;
+import java.util.Locale;
+import java.util.Map;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Changes the level of the server's loggers while it runs. The launcher logs with slf4j-simple,
+ * which has no API for this, so the level of each logger it has created is set directly, along
+ * with its default level for loggers created later.
+ */
+final class SimpleLoggerLevels {
+
+  private static final String SIMPLE_LOGGER_FACTORY = "org.slf4j.simple.SimpleLoggerFactory";
+
+  private SimpleLoggerLevels() {}
+
+  /**
+   * Set the level of the named logger and the loggers below it, or of every logger if the name is
+   * empty, returning a description of the change.
+   */
+  static String set(String name, String level) {
+    ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+    if (!SIMPLE_LOGGER_FACTORY.equals(factory.getClass().getName())) {
+      return "error: log levels can only be changed with slf4j-simple, not "
+          + factory.getClass().getName();
+    }
+    try {
+      Class<?> loggerClass = Class.forName("org.slf4j.simple.SimpleLogger", true,
+          factory.getClass().getClassLoader());
+      int value;
+      try {
+        value = accessible(loggerClass.getDeclaredField(
+            "LOG_LEVEL_" + level.toUpperCase(Locale.ROOT))).getInt(null);
+      } catch (NoSuchFieldException e) {
+        return "error: unknown level '" + level + "'; expected trace, debug, info, warn, error, or"
+            + " off";
+      }
+      Field currentLevel = accessible(loggerClass.getDeclaredField("currentLogLevel"));
+      @SuppressWarnings("unchecked")
+      Map<String, Logger> loggers =
+          (Map<String, Logger>) accessible(factory.getClass().getDeclaredField("loggerMap"))
+              .get(factory);
+      int changed = 0;
+      for (Map.Entry<String, Logger> logger : loggers.entrySet()) {
+        String loggerName = logger.getKey();
+        if ((name.isEmpty() || loggerName.equals(name) || loggerName.startsWith(name + "."))
+            && loggerClass.isInstance(logger.getValue())) {
+          currentLevel.setInt(logger.getValue(), value);
+          changed++;
+        }
+      }
+      if (name.isEmpty()) {
+        Object config = accessible(loggerClass.getDeclaredField("CONFIG_PARAMS")).get(null);
+        accessible(config.getClass().getDeclaredField("defaultLogLevel")).setInt(config, value);
+      }
+      return "level " + level.toLowerCase(Locale.ROOT) + " set on " + changed + " loggers";
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return "error: unable to change log levels: " + e;
+    }
+  }
+
+  private static Field accessible(Field field) {
+    field.setAccessible(true);
+    return field;
+  }
+
+}
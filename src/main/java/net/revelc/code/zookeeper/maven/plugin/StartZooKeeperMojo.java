@@ -21,18 +21,34 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
-import java.util.Scanner;
 import java.util.UUID;
-import org.apache.maven.artifact.Artifact;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.apache.zookeeper.Watcher;
-import org.apache.zookeeper.ZooKeeper;
 
 /**
  * Starts a service which runs the ZooKeeper server.
@@ -40,23 +56,23 @@ import org.apache.zookeeper.ZooKeeper;
 @Mojo(name = "start", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST, threadSafe = true)
 public class StartZooKeeperMojo extends AbstractZooKeeperMojo {
 
-  /**
-   * The directory to use to store plugin data and state.
-   *
-   * @since 1.1.0
-   */
-  @Parameter(alias = "zmpDir", property = "zmp.directory",
-      defaultValue = "${project.build.directory}/zmp")
-  protected File zmpDir;
+  private static final String CONSOLE_FILE = "zkServer.console";
+  private static final String TRASH_DIR = ".trash";
+  private static final String OWNER_FILE = "owner.pid";
+  private static final String NIO_FACTORY = "org.apache.zookeeper.server.NIOServerCnxnFactory";
+  private static final String NETTY_FACTORY = "org.apache.zookeeper.server.NettyServerCnxnFactory";
 
-  /**
-   * The port on which to run the ZooKeeper server.
-   *
-   * @since 1.0.0
-   */
-  @Parameter(alias = "clientPort", required = true, property = "zmp.clientPort",
-      defaultValue = "2181")
-  protected int clientPort;
+  // services started in the background, by retain key, which have yet to be awaited
+  private static final ConcurrentHashMap<String, StartZooKeeperMojo> starting =
+      new ConcurrentHashMap<>();
+
+  // directories of services started on free ports, by instance key, which have yet to be stopped
+  private static final ConcurrentHashMap<String, File> temporaryDirectories =
+      new ConcurrentHashMap<>();
+
+  private static final Pattern STARTED_PORTS =
+      Pattern.compile("clientPort: (\\d+), shutdownPort: (\\d+)");
+  private static final Pattern STARTED_PROXY_PORT = Pattern.compile("proxyPort: (\\d+)");
 
   /**
    * The tickTime ZooKeeper option.
@@ -90,6 +106,79 @@ public class StartZooKeeperMojo extends AbstractZooKeeperMojo {
   @Parameter(alias = "maxClientCnxns", property = "zmp.maxClientCnxns", defaultValue = "100")
   protected int maxClientCnxns;
 
+  /**
+   * The implementation ZooKeeper uses to accept client connections: {@code nio}, {@code netty},
+   * or the class name of another {@code ServerCnxnFactory}. The Netty implementation uses native
+   * epoll, rather than NIO, where it is available. When not set, ZooKeeper's default, NIO, is
+   * used.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "serverCnxnFactory", property = "zmp.serverCnxnFactory")
+  protected String serverCnxnFactory;
+
+  /**
+   * The number of threads which select client connections ready for I/O, for the NIO
+   * implementation. Zero keeps ZooKeeper's default, which depends on the number of processors.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "selectorThreads", property = "zmp.selectorThreads", defaultValue = "0")
+  protected int selectorThreads;
+
+  /**
+   * The number of threads which read and write client connections: the worker threads of the NIO
+   * implementation, or the event loop threads of a forked server's Netty implementation. Zero
+   * keeps the default, which depends on the number of processors.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "workerThreads", property = "zmp.workerThreads", defaultValue = "0")
+  protected int workerThreads;
+
+  /**
+   * The number of requests which may be queued in the server, across all clients, before it
+   * stops reading more from them. Zero keeps ZooKeeper's default of 1000.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "globalOutstandingLimit", property = "zmp.globalOutstandingLimit",
+      defaultValue = "0")
+  protected int globalOutstandingLimit;
+
+  /**
+   * When set to true, each server also accepts client connections through a proxy, which adds the
+   * faults in {@code proxyFaults} to the traffic it relays. Its connect string is published as the
+   * {@code zmp.proxyConnectString} property, and its faults can be changed while it runs with the
+   * {@code proxy} command of the {@code control} goal, or of the control channel.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "proxy", property = "zmp.proxy", defaultValue = "false")
+  protected boolean proxy;
+
+  /**
+   * The port on which the proxy accepts client connections, with consecutive ports for the servers
+   * of an ensemble. Zero selects any free port for a single server.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "proxyPort", property = "zmp.proxyPort", defaultValue = "0")
+  protected int proxyPort;
+
+  /**
+   * The faults the proxy starts with, as space or comma separated settings: {@code latency} and
+   * {@code jitter}, in milliseconds, added to each direction; {@code bandwidth}, the limit in bytes
+   * per second for each direction of each connection; {@code drop}, the probability that a
+   * connection is reset each time data is relayed on it; and {@code partition}, true to stop
+   * relaying data in both directions without closing any connection. For example,
+   * {@code latency=50 jitter=20 drop=0.001}.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "proxyFaults", property = "zmp.proxyFaults", defaultValue = "")
+  protected String proxyFaults;
+
   /**
    * Keep previous ZooKeeper data and state. Best used with non-default directory.
    *
@@ -99,6 +188,72 @@ public class StartZooKeeperMojo extends AbstractZooKeeperMojo {
       defaultValue = "false")
   protected boolean keepPreviousState;
 
+  /**
+   * When set to true, and previous state is kept, compact it before starting: roll any
+   * transactions logged after the last snapshot into a new one, and delete all but
+   * {@code snapRetainCount} snapshots, with the logs they need. Each server also writes a snapshot
+   * when it is stopped, so the next one starts without replaying transactions. An ensemble's logs
+   * aren't rolled into snapshots, as they may hold proposals which were never committed, but old
+   * files are still deleted. By default, every snapshot and log is kept, as ZooKeeper does.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "compactPreviousState", property = "zmp.compactPreviousState",
+      defaultValue = "false")
+  protected boolean compactPreviousState;
+
+  /**
+   * The number of the most recent snapshots kept, with the transaction logs they need, when
+   * previous state is compacted, or purged while the server runs. ZooKeeper requires at least 3.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "snapRetainCount", property = "zmp.snapRetainCount", defaultValue = "3")
+  protected int snapRetainCount;
+
+  /**
+   * The interval, in hours, at which a running server deletes all but {@code snapRetainCount}
+   * snapshots, with the transaction logs they need, or zero to never purge them while it runs.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "purgeInterval", property = "zmp.purgeInterval", defaultValue = "0")
+  protected int purgeInterval;
+
+  /**
+   * A directory containing prebuilt ZooKeeper state (the snapshots and transaction logs found in a
+   * server's data directory) used as the initial contents of the data directory, so the server
+   * starts with that data already loaded. Snapshots are hard-linked when on the same file system;
+   * transaction logs are copied. The seed is not applied when previous state is kept and the data
+   * directory is not empty.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "seedDirectory", property = "zmp.seedDirectory")
+  protected File seedDirectory;
+
+  /**
+   * The fixture files the {@code load} goal will create, used to look up state saved from them by
+   * the {@code capture} goal. If {@code stateCacheDirectory} has an archive for these fixtures,
+   * the server starts with that state, instead of seeding it from {@code seedDirectory}, and the
+   * {@code load} goal then only creates their ephemeral nodes.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "fixtures", property = "zmp.fixtures")
+  protected List<File> fixtures;
+
+  /**
+   * The directory in which state archives written by the {@code capture} goal are kept. The
+   * default, in the local repository, keeps them across clean builds and shares them between
+   * projects.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "stateCacheDirectory", property = "zmp.stateCacheDirectory",
+      defaultValue = "${settings.localRepository}/.cache/zookeeper-maven-plugin/state")
+  protected File stateCacheDirectory;
+
   /**
    * When set, this adds the configured JVM args to the Java command line. This can also be used to
    * set Java system properties used by ZooKeeper to control its behavior, such as enabling 4lw
@@ -110,108 +265,804 @@ public class StartZooKeeperMojo extends AbstractZooKeeperMojo {
   @Parameter(alias = "jvmArgs")
   protected List<String> jvmArgs;
 
+  /**
+   * The amount of time, in seconds, to wait for the ZooKeeper service to start serving requests
+   * before failing the build.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "startupTimeout", property = "zmp.startupTimeout", defaultValue = "60")
+  protected int startupTimeout;
+
+  /**
+   * The number of observers among the {@code servers} of an ensemble. Observers receive updates
+   * from the ensemble, but do not vote in leader elections or count toward a write quorum.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "observers", property = "zmp.observers", defaultValue = "0")
+  protected int observers;
+
+  /**
+   * The port on which the first server of an ensemble listens for its followers. Subsequent servers
+   * use consecutive ports.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "peerPort", property = "zmp.peerPort", defaultValue = "2888")
+  protected int peerPort;
+
+  /**
+   * The port on which the first server of an ensemble listens for leader election. Subsequent
+   * servers use consecutive ports.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "electionPort", property = "zmp.electionPort", defaultValue = "3888")
+  protected int electionPort;
+
+  /**
+   * When set to false, run ZooKeeper on threads inside the Maven JVM instead of forking a new JVM.
+   * The in-process server uses its own isolated class loader, logs to {@code zkServer.log} in its
+   * directory in the {@code zmpDir}, and is shut down directly by the {@code stop} goal. Since
+   * there is no separate Java command line in this mode, only {@code jvmArgs} which set
+   * {@code zookeeper.*} system properties are applied (through the generated configuration file);
+   * others are ignored. Those properties are set in the Maven JVM while the server runs, and
+   * restored once every in-process server has stopped.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "fork", property = "zmp.fork", defaultValue = "true")
+  protected boolean fork;
+
+  /**
+   * How durably ZooKeeper stores its data, either {@code durable} or {@code ephemeral}. The
+   * {@code durable} setting uses ZooKeeper's defaults. For throwaway test servers, the
+   * {@code ephemeral} setting avoids most disk I/O: transactions are not synced to disk, the
+   * transaction log is preallocated in small blocks, snapshots are only taken after many
+   * transactions, and a forked server exits without an orderly shutdown when stopped. Data may be
+   * lost or corrupted if the machine crashes, so don't use this with {@code keepPreviousState}.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "durability", property = "zmp.durability", defaultValue = "durable")
+  protected String durability;
+
+  /**
+   * When {@code durability} is {@code ephemeral}, a directory on a memory-backed file system, such
+   * as {@code /dev/shm}, in which to create the data directory instead of in the {@code zmpDir}.
+   * The data directory is deleted when ZooKeeper is stopped.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "tmpfsDirectory", property = "zmp.tmpfsDirectory")
+  protected File tmpfsDirectory;
+
+  /**
+   * When {@code durability} is {@code ephemeral}, measure and log how much faster transaction log
+   * writes are in the data directory's file system than with the default settings. This takes up
+   * to a few seconds on slow disks.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "durabilityProbe", property = "zmp.durabilityProbe", defaultValue = "false")
+  protected boolean durabilityProbe;
+
+  /**
+   * When attaching to a {@code shared} service already started by another project, delete all of
+   * its znodes (except ZooKeeper's own), so each project starts from an empty tree. This is skipped
+   * while other projects are still using the service, as in parallel builds.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "resetOnAttach", property = "zmp.resetOnAttach", defaultValue = "true")
+  protected boolean resetOnAttach;
+
+  /**
+   * The class name of ZooKeeper's metrics provider. The default keeps metrics in memory, with
+   * little overhead, for the {@code metricsReport}. Other providers, such as
+   * {@code org.apache.zookeeper.metrics.prometheus.PrometheusMetricsProvider}, must be added as
+   * dependencies of this plugin.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "metricsProvider", property = "zmp.metricsProvider",
+      defaultValue = "org.apache.zookeeper.metrics.impl.DefaultMetricsProvider")
+  protected String metricsProvider;
+
+  /**
+   * Configuration for the {@code metricsProvider}, such as {@code httpPort} for the Prometheus
+   * provider. In an ensemble, the servers use consecutive values of {@code httpPort}.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "metricsProviderProperties")
+  protected Map<String, String> metricsProviderProperties;
+
+  /**
+   * When set to true, each server writes the values of all its metrics, such as request latency,
+   * outstanding requests, and the number of znodes, to {@code zkServer.metrics.json} and
+   * {@code zkServer.metrics.csv} beside its log when it is stopped.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "metricsReport", property = "zmp.metricsReport", defaultValue = "true")
+  protected boolean metricsReport;
+
+  /**
+   * When set to true, the forked JVM maps the classes it loads from a Class Data Sharing archive,
+   * instead of loading and verifying them again each time it starts. The archive is created by the
+   * first server to run with a given plugin version, JDK, and set of plugin dependencies, when it
+   * stops, and used by every later one. This requires JDK 13 or later, and is ignored when
+   * {@code fork} is false.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "classDataSharing", property = "zmp.classDataSharing", defaultValue = "true")
+  protected boolean classDataSharing;
+
+  /**
+   * The directory in which {@code classDataSharing} archives, and the pathing jars which give the
+   * forked JVM its classpath, are kept. The default, in the local repository, keeps them across
+   * clean builds and shares them between projects.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "classDataSharingDirectory", property = "zmp.classDataSharingDirectory",
+      defaultValue = "${settings.localRepository}/.cache/zookeeper-maven-plugin")
+  protected File classDataSharingDirectory;
+
+  /**
+   * When set to true, the forked JVM only uses its quick first-tier JIT compiler and the serial
+   * garbage collector, which start faster, but run long test suites more slowly than the JVM's
+   * defaults. Options in {@code jvmArgs} take precedence.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "fastStartup", property = "zmp.fastStartup", defaultValue = "false")
+  protected boolean fastStartup;
+
+  /**
+   * When set to true, the forked server shuts itself down when the Maven process which started it
+   * exits, so that a build which is killed, or fails before the {@code stop} goal, doesn't leave it
+   * running. Leave it false to start a server from the command line, which keeps running after
+   * {@code mvn zookeeper:start} returns, until {@code mvn zookeeper:stop}.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "exitWithBuild", property = "zmp.exitWithBuild", defaultValue = "false")
+  protected boolean exitWithBuild;
+
+  /**
+   * The number of seconds for which the forked server may have no client connections or sessions,
+   * after which it shuts itself down, or zero to keep it running until it is stopped.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "idleTimeout", property = "zmp.idleTimeout", defaultValue = "0")
+  protected int idleTimeout;
+
+  /**
+   * Where the console output of the forked JVM goes, such as JVM warnings, or GC logs enabled in
+   * {@code jvmArgs}: {@code file}, to write it to {@code zkServer.console} beside the server's
+   * other logs; {@code debug}, {@code info}, or {@code warn}, to log it at that level; or
+   * {@code none}, to discard it. It is read for as long as the server runs, so it can't fill the
+   * pipe and stall the server. ZooKeeper's own logs are always written to {@code zkServer.stderr}.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "forkOutput", property = "zmp.forkOutput", defaultValue = "file")
+  protected String forkOutput;
+
+  /**
+   * The size, in bytes, beyond which {@code zkServer.console} is renamed with the suffix
+   * {@code .1}, and a new file started.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "forkOutputFileSize", property = "zmp.forkOutputFileSize",
+      defaultValue = "10485760")
+  protected long forkOutputFileSize;
+
+  /**
+   * The number of {@code zkServer.console} files to keep, including the current one; the oldest
+   * is deleted when the current file is renamed.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "forkOutputFiles", property = "zmp.forkOutputFiles", defaultValue = "3")
+  protected int forkOutputFiles;
+
+  /**
+   * When set to true, return as soon as the forked servers are launched, instead of waiting for
+   * them to serve requests, so that ZooKeeper starts while the build goes on, such as compiling
+   * and packaging, from an earlier phase. The {@code await} goal, or any other goal of this plugin
+   * which uses the service, waits for it to start. It is ignored for an in-process or shared
+   * service.
+   *
+   * @since 1.3.0
+   */
+  @Parameter(alias = "startInBackground", property = "zmp.startInBackground",
+      defaultValue = "false")
+  protected boolean startInBackground;
+
   private File baseDir;
-  private File dataDir;
+  private boolean temporaryBaseDir;
+  private final List<File> dataDirs = new ArrayList<>();
+  private final List<StartupReport> startupReports = new ArrayList<>();
+  private final List<Long> pids = new ArrayList<>();
+  private final List<Process> processes = new ArrayList<>();
+  private final List<CompletableFuture<String>> started = new ArrayList<>();
+  private final AtomicLong servingSince = new AtomicLong();
+  private long launchStarted;
+  private Thread reaper;
 
   @Override
   protected void runMojo() throws MojoExecutionException, MojoFailureException {
+    if (servers < 1 || observers < 0 || observers >= servers) {
+      throw new MojoExecutionException(
+          "servers must be at least 1, and there must be fewer observers than servers");
+    }
+    if (!"durable".equals(durability) && !"ephemeral".equals(durability)) {
+      throw new MojoExecutionException(
+          "durability must be durable or ephemeral, but was " + durability);
+    }
+    if (tmpfsDirectory != null && (!isEphemeral() || keepPreviousState)) {
+      throw new MojoExecutionException(
+          "tmpfsDirectory requires ephemeral durability, without keepPreviousState");
+    }
+    if (servers > 1 && (clientPort == 0 || shutdownPort == 0 || (proxy && proxyPort == 0))) {
+      throw new MojoExecutionException(
+          "An ensemble requires a non-zero clientPort and shutdownPort, and proxyPort if proxied");
+    }
+    if (proxyFaults == null) {
+      proxyFaults = "";
+    }
+    if (snapRetainCount < 3) {
+      throw new MojoExecutionException(
+          "snapRetainCount must be at least 3, but was " + snapRetainCount);
+    }
+    if (idleTimeout > 0 && !fork) {
+      getLog().warn("Ignoring idleTimeout, which only applies to a forked server");
+    }
+    if (proxy) {
+      try {
+        FaultProxy.Faults.NONE.with(proxyFaults);
+      } catch (IllegalArgumentException e) {
+        throw new MojoExecutionException("Bad proxyFaults: " + e.getMessage());
+      }
+    }
+
+    if (!shared) {
+      if (launch()) {
+        publishProperties();
+      }
+      return;
+    }
+    try (SharedLease lease = SharedLease.acquire(leaseFile())) {
+      Properties leased = lease.read();
+      if (!attach(leased)) {
+        launch();
+        leased = new Properties();
+        leased.setProperty("build", buildId());
+        leased.setProperty("clientPort", Integer.toString(clientPort));
+        leased.setProperty("shutdownPort", Integer.toString(shutdownPort));
+        if (proxy) {
+          leased.setProperty("proxyPort", Integer.toString(proxyPort));
+        }
+        leased.setProperty("references", "1");
+        leased.setProperty("attached", project.getId());
+      }
+      lease.write(leased);
+    }
+    publishProperties();
+  }
+
+  /**
+   * Attach to the shared service recorded in the lease, if it was started by this build and is
+   * still running, adding a reference to the lease.
+   */
+  private boolean attach(Properties leased) throws MojoExecutionException {
+    if (leased.isEmpty()) {
+      return false;
+    }
+    if (!buildId().equals(leased.getProperty("build"))) {
+      getLog().info("Replacing shared ZooKeeper lease left by another build");
+      return false;
+    }
+    int leasedClientPort = Integer.parseInt(leased.getProperty("clientPort"));
+    if (!isListening(leasedClientPort)) {
+      getLog().warn("Shared ZooKeeper service is no longer running; starting a new one");
+      return false;
+    }
+
+    clientPort = leasedClientPort;
+    shutdownPort = Integer.parseInt(leased.getProperty("shutdownPort"));
+    if (proxy && leased.getProperty("proxyPort") == null) {
+      getLog().warn("Shared ZooKeeper service was started without a proxy");
+      proxy = false;
+    } else if (proxy) {
+      proxyPort = Integer.parseInt(leased.getProperty("proxyPort"));
+    }
+    int references = Integer.parseInt(leased.getProperty("references")) + 1;
+    leased.setProperty("references", Integer.toString(references));
+    leased.setProperty("attached", leased.getProperty("attached") + "," + project.getId());
+    getLog().info("Attached to shared ZooKeeper service on " + connectString() + " (" + references
+        + " projects using it)");
+    if (resetOnAttach && references > 1) {
+      // with parallel builds, don't delete data from under projects still using the service
+      getLog().info("Not resetting shared ZooKeeper service, because other projects are using it");
+    } else if (resetOnAttach) {
+      final long start = System.nanoTime();
+      int deleted = ZnodeReset.run(connectString());
+      getLog().info("Deleted " + deleted + " znodes in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+    return true;
+  }
+
+  private boolean isListening(int port) {
+    try (Socket socket = new Socket()) {
+      socket.connect(new InetSocketAddress(clientPortAddress, port), 1000);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Launch the service, returning true once it is serving requests, or false if it is starting in
+   * the background.
+   */
+  private boolean launch() throws MojoExecutionException, MojoFailureException {
+    launchStarted = System.nanoTime();
     parseConfig();
+    String stateKey = fixtures == null || fixtures.isEmpty() ? null : StateArchive.key(fixtures);
+    File state = stateKey == null ? null : StateArchive.file(stateCacheDirectory, stateKey);
+    if (state != null && !state.isFile()) {
+      getLog().debug("No captured state for these fixtures in " + state.getAbsolutePath());
+      state = null;
+    }
+    // removing the service's previous state is common to all of its servers
+    final double baseDirCleanup = StartupReport.millis(System.nanoTime() - launchStarted);
 
+    List<File> zooCfgFiles = new ArrayList<>();
+    boolean restored = true;
+    for (int node = 0; node < servers; node++) {
+      StartupReport report = new StartupReport();
+      startupReports.add(report);
+      report.add("directoryCleanup", baseDirCleanup);
+      long phaseStarted = System.nanoTime();
+      File dataDir = createDataDir(node);
+      restored &= prepareDataDir(dataDir, node, state);
+      report.addSince("directoryCleanup", phaseStarted);
+      dataDirs.add(dataDir);
+      phaseStarted = System.nanoTime();
+      zooCfgFiles.add(createZooCfg(dataDir, node));
+      report.addSince("configWrite", phaseStarted);
+    }
+    if (state != null && restored) {
+      project.getProperties().setProperty(RESTORED_STATE_PROPERTY, stateKey);
+    }
+    if (isEphemeral() && durabilityProbe) {
+      try {
+        getLog().info(DurabilityProbe.run(dataDirs.get(0)));
+      } catch (IOException e) {
+        getLog().warn("Unable to measure write throughput", e);
+      }
+    }
+
+    if (!fork) {
+      startInProcess(zooCfgFiles);
+    } else if (startInBackground && !shared) {
+      forkServers(zooCfgFiles);
+      reaper = new Thread(() -> processes.forEach(Process::destroy), "ZooKeeperReaper");
+      // a build which fails before the service is awaited would otherwise leave it running
+      Runtime.getRuntime().addShutdownHook(reaper);
+      starting.put(retainKey(), this);
+      getLog().info("ZooKeeper service is starting in the background");
+      return false;
+    } else {
+      if (startInBackground) {
+        getLog().warn("A shared ZooKeeper service can't be started in the background");
+      }
+      forkServers(zooCfgFiles);
+      awaitForked();
+    }
+    finishLaunch();
+    return true;
+  }
+
+  /**
+   * Wait for the service with the given retain key to start, if it was started in the background,
+   * returning false if there was no such service. Every goal which uses the service calls this
+   * first, so that it can't run before the service is serving.
+   */
+  static boolean awaitBackgroundStart(String key)
+      throws MojoExecutionException, MojoFailureException {
+    StartZooKeeperMojo start = starting.remove(key);
+    if (start == null) {
+      return false;
+    }
+    final long awaitStarted = System.nanoTime();
+    start.awaitForked();
+    Runtime.getRuntime().removeShutdownHook(start.reaper);
+    start.finishLaunch();
+    start.publishProperties();
+    start.getLog().info("Waited " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - awaitStarted)
+        + " ms for the ZooKeeper service started in the background");
+    return true;
+  }
+
+  private void finishLaunch() {
+    final long requestsStarted = System.nanoTime();
+    timeFirstRequests();
+    // a service started in the background may have been serving long before it was awaited
+    long served = servingSince.get() == 0 ? requestsStarted
+        : Math.min(servingSince.get(), requestsStarted);
+    long totalNanos = served - launchStarted + (System.nanoTime() - requestsStarted);
+    getLog().info("ZooKeeper service has started on " + connectString() + " in "
+        + TimeUnit.NANOSECONDS.toMillis(totalNanos) + " ms");
+    if (proxy) {
+      getLog().info("ZooKeeper fault injecting proxy is listening on " + proxyConnectString()
+          + " with faults " + FaultProxy.Faults.NONE.with(proxyFaults));
+    }
+    writeStartupReports(StartupReport.millis(totalNanos));
+    if (temporaryBaseDir) {
+      // the server, rather than the build which started it, now owns the directory
+      writeOwner(baseDir, pids.get(0));
+      temporaryDirectories.put(instanceKey(), baseDir);
+    }
+  }
+
+  /**
+   * Release the directory of the service with the given instance key, if it was created for a
+   * service on a free port, once the service has stopped. Like the directory of a service on a
+   * fixed port, it is kept, with the server's logs, until the next service on a free port starts.
+   */
+  static void releaseTemporaryDirectory(String key) {
+    File dir = temporaryDirectories.remove(key);
+    if (dir != null) {
+      writeOwner(dir, null);
+    }
+  }
+
+  /**
+   * Time a request to each server, since accepting a connection on the client port and answering
+   * it is what clients actually wait for.
+   */
+  private void timeFirstRequests() {
+    for (int node = 0; node < servers; node++) {
+      final long requestStarted = System.nanoTime();
+      try {
+        ZooKeeperClients.fourLetterWord(clientPortAddress, clientPort + node, "srvr", 5000);
+        startupReports.get(node).addSince("firstClientRequest", requestStarted);
+      } catch (IOException e) {
+        getLog().warn("ZooKeeper did not answer a request on port " + (clientPort + node), e);
+      }
+    }
+  }
+
+  private void writeStartupReports(double totalMillis) {
+    for (int node = 0; node < servers; node++) {
+      StartupReport report = startupReports.get(node);
+      getLog().debug("  ZooKeeper startup phases (ms): "
+          + StartupReport.formatPhases(report.phases()));
+      try {
+        File written = report.write(new File(nodeDir(node), "conf"), pids.get(node),
+            connectString(), totalMillis);
+        getLog().debug("  ZooKeeper startup report written to " + written.getAbsolutePath());
+      } catch (IOException e) {
+        getLog().warn("Unable to write ZooKeeper startup report", e);
+      }
+    }
+  }
+
+  private void publishProperties() {
+    // make the ports selected for this service available to other goals and to tests
+    Properties properties = project.getProperties();
+    properties.setProperty(CONNECT_STRING_PROPERTY, connectString());
+    properties.setProperty(ACTUAL_CLIENT_PORT_PROPERTY, Integer.toString(clientPort));
+    properties.setProperty(ACTUAL_SHUTDOWN_PORT_PROPERTY, Integer.toString(shutdownPort));
+    if (proxy) {
+      properties.setProperty(PROXY_CONNECT_STRING_PROPERTY, proxyConnectString());
+    }
+  }
+
+  private String proxyConnectString() {
+    return IntStream.range(0, Math.max(servers, 1))
+        .mapToObj(node -> clientPortAddress + ":" + (proxyPort + node))
+        .collect(Collectors.joining(","));
+  }
+
+  private void forkServers(List<File> zooCfgFiles)
+      throws MojoExecutionException, MojoFailureException {
+    // start every server before waiting, so the members of an ensemble boot concurrently
+    String classpath = launcherClasspath();
+    ClassDataSharing cds = classDataSharing ? prepareClassDataSharing(classpath) : null;
+    boolean success = false;
+    try {
+      for (int node = 0; node < zooCfgFiles.size(); node++) {
+        String token = UUID.randomUUID().toString();
+        final OutputPump.Sink output = forkOutputSink(node);
+        final long forkStarted = System.nanoTime();
+        Process forkedProcess = fork(zooCfgFiles.get(node), node, token, classpath, cds);
+        startupReports.get(node).addSince("fork", forkStarted);
+        pids.add(forkedProcess.pid());
+        processes.add(forkedProcess);
+        started.add(OutputPump.start(forkedProcess.getInputStream(), token, output,
+            "ZooKeeperOutput" + (servers > 1 ? "-" + (node + 1) : ""))
+            .whenComplete((line, e) -> servingSince.accumulateAndGet(System.nanoTime(),
+                Math::max)));
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        processes.forEach(Process::destroyForcibly);
+      }
+    }
+  }
+
+  private void awaitForked() throws MojoExecutionException, MojoFailureException {
+    boolean success = false;
+    try {
+      getLog().info("Waiting for ZooKeeper service to start...");
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(startupTimeout);
+      for (int node = 0; node < started.size(); node++) {
+        String line = awaitToken(started.get(node), deadline);
+        if (line == null) {
+          throw new MojoFailureException("ZooKeeper service exited before it started serving; see "
+              + new File(logDir(node), "zkServer.stderr").getAbsolutePath()
+              + ("file".equals(forkOutput)
+                  ? " and " + new File(logDir(node), CONSOLE_FILE).getAbsolutePath()
+                  : ""));
+        }
+        Matcher ports = STARTED_PORTS.matcher(line);
+        if (node == 0 && ports.find()) {
+          // only a single server may have requested ephemeral ports
+          clientPort = Integer.parseInt(ports.group(1));
+          shutdownPort = Integer.parseInt(ports.group(2));
+          Matcher proxied = STARTED_PROXY_PORT.matcher(line);
+          if (proxied.find()) {
+            proxyPort = Integer.parseInt(proxied.group(1));
+          }
+        }
+        startupReports.get(node).addAll(StartupReport.parsePhases(line));
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        processes.forEach(Process::destroyForcibly);
+      }
+    }
+  }
+
+  /**
+   * The classpath of a forked launcher: a pathing jar, or if that can't be written, every entry.
+   */
+  private String launcherClasspath() {
+    List<File> classpathFiles = getClasspathFiles();
+    try {
+      return LauncherClasspath.pathingJar(classDataSharingDirectory, plugin.getVersion(),
+          classpathFiles).getAbsolutePath();
+    } catch (IOException e) {
+      getLog().warn("Unable to write launcher pathing jar in "
+          + classDataSharingDirectory.getAbsolutePath(), e);
+      return classpathFiles.stream().map(File::getAbsolutePath)
+          .collect(Collectors.joining(File.pathSeparator));
+    }
+  }
+
+  private ClassDataSharing prepareClassDataSharing(String classpath) {
+    try {
+      ClassDataSharing cds = ClassDataSharing.forLauncher(classDataSharingDirectory,
+          plugin.getVersion(), getJavaCommand(), getClasspathFiles(), classpath);
+      if (cds == null) {
+        getLog().debug("  Class data sharing requires JDK 13 or later, and a classpath of jars");
+      } else if (cds.prepare()) {
+        getLog().debug("  Using class data sharing archive " + cds.archive().getAbsolutePath());
+      } else {
+        getLog().debug("  Class data sharing archive " + cds.archive().getAbsolutePath()
+            + " will be created when ZooKeeper stops");
+      }
+      return cds;
+    } catch (IOException e) {
+      getLog().warn("Unable to use class data sharing archive in "
+          + classDataSharingDirectory.getAbsolutePath(), e);
+      return null;
+    }
+  }
+
+  private Process fork(File zooCfgFile, int node, String token, String classpath,
+      ClassDataSharing cds) throws MojoFailureException {
     ProcessBuilder builder = new ProcessBuilder();
     builder.command().add(getJavaCommand());
 
-    String classpath = getClasspath();
-    if (!classpath.isEmpty()) {
-      builder.environment().put("CLASSPATH", classpath);
-    }
+    builder.environment().put("CLASSPATH", classpath);
     getLog().debug("  ZooKeeper environment: " + builder.environment());
 
     // disable admin server by default
     builder.command().add("-Dzookeeper.admin.enableServer=false");
     builder.command().add("-Dzookeeper.jmx.log4j.disable=true");
     builder.command().add("-Dorg.slf4j.simpleLogger.defaultLogLevel=info");
+    List<String> cdsArgs = cds == null ? Collections.emptyList() : cds.jvmArgs();
+    builder.command().addAll(cdsArgs);
+    if (workerThreads > 0 && NETTY_FACTORY.equals(connectionFactory())) {
+      builder.command().add("-Dio.netty.eventLoopThreads=" + workerThreads);
+    }
+    if (fastStartup) {
+      builder.command().add("-XX:TieredStopAtLevel=1");
+      builder.command().add("-XX:+UseSerialGC");
+    }
     if (jvmArgs != null) {
       jvmArgs.stream().map(String::trim).filter(s -> !s.isEmpty()).forEach(builder.command()::add);
     }
 
     builder.command().add(ZooKeeperLauncher.class.getName());
     builder.command().add("--logdir");
-    builder.command().add(zmpDir.getAbsolutePath());
-    builder.command().add("--shutdownPort");
-    builder.command().add(Integer.toString(shutdownPort));
-    builder.command().add("--shutdownString");
-    builder.command().add(shutdownString);
-
-    String token = UUID.randomUUID().toString();
+    builder.command().add(logDir(node).getAbsolutePath());
     builder.command().add("--token");
     builder.command().add(token);
-
-    File zooCfgFile = createZooCfg();
-    builder.command().add("--zoocfg");
-    builder.command().add(zooCfgFile.getAbsolutePath());
+    if (exitWithBuild) {
+      builder.command().add("--parentPid");
+      builder.command().add(Long.toString(ProcessHandle.current().pid()));
+    }
+    if (idleTimeout > 0) {
+      builder.command().add("--idleTimeout");
+      builder.command().add(Integer.toString(idleTimeout));
+    }
+    builder.command().addAll(launcherArgs(zooCfgFile, node));
 
     builder.directory(project.getBasedir());
-    getLog().info("Starting ZooKeeper");
+    getLog().info("Starting ZooKeeper" + (servers > 1 ? " server " + (node + 1) : ""));
     getLog().debug("  ZooKeeper command: " + String.join(" ", builder.command()));
 
-    Process forkedProcess = null;
     try {
       // merge stderr and stdout from child
       builder.redirectErrorStream(true);
-      forkedProcess = builder.start();
-      try (Scanner scanner = new Scanner(forkedProcess.getInputStream(), UTF_8.name())) {
-        getLog().info("Waiting for ZooKeeper service to start...");
-        int checklines = 50;
-        boolean verifiedStart = false;
-        while (scanner.hasNextLine() && checklines > 0) {
-          String line = scanner.nextLine();
-          getLog().debug("LINE: " + line);
-          if (line.contains("Token: " + token)) {
-            verifiedStart = true;
-            break;
+      Process process = builder.start();
+      if (cds != null) {
+        cds.forked(cdsArgs, process.pid());
+      }
+      return process;
+    } catch (IOException e) {
+      throw new MojoFailureException("Unable to start process", e);
+    }
+  }
+
+  private void startInProcess(List<File> zooCfgFiles) throws MojoExecutionException {
+    List<InProcessZooKeeper> launched = new ArrayList<>();
+    List<Long> forkNanos = new ArrayList<>();
+    boolean success = false;
+    try {
+      for (int node = 0; node < zooCfgFiles.size(); node++) {
+        File zooCfgFile = zooCfgFiles.get(node);
+        List<URL> classpath = new ArrayList<>();
+        try {
+          // the configuration directory provides the in-process logging configuration
+          classpath.add(zooCfgFile.getParentFile().toURI().toURL());
+          for (File file : getClasspathFiles()) {
+            classpath.add(file.toURI().toURL());
           }
-          checklines--;
+        } catch (MalformedURLException e) {
+          throw new MojoExecutionException("Unable to build in-process classpath", e);
         }
-        boolean canConnect = false;
-        Watcher noopWatcher = (event) -> {
-          // noop
-        };
-        while (!canConnect) {
-          ZooKeeper zk = null;
-          try {
-            String address = clientPortAddress + ":" + clientPort;
-            getLog().info("Waiting for ZooKeeper on " + address + "...");
-            zk = new ZooKeeper(address, tickTime, noopWatcher);
-            zk.getChildren("/", false);
-            getLog().info("ZooKeeper is running on " + address + ".");
-            canConnect = true;
-          } catch (Exception e) {
-            getLog().info("ZooKeeper not yet ready: " + e.getMessage());
-            getLog().debug("ZooKeeper not yet ready: " + e.getMessage(), e);
-            try {
-              Thread.sleep(1000);
-            } catch (InterruptedException e1) {
-              Thread.currentThread().interrupt();
-              throw new MojoExecutionException("interrupted", e1);
-            }
-          } finally {
-            if (zk != null) {
-              try {
-                zk.close();
-              } catch (InterruptedException e) {
-                // don't care
-              }
-            }
-          }
+        String[] args = launcherArgs(zooCfgFile, node).toArray(new String[0]);
+
+        getLog().info(
+            "Starting ZooKeeper in-process" + (servers > 1 ? " server " + (node + 1) : ""));
+        getLog().debug("  ZooKeeper classpath: " + classpath);
+        final long forkStarted = System.nanoTime();
+        launched.add(InProcessZooKeeper.start(classpath, args));
+        forkNanos.add(System.nanoTime() - forkStarted);
+        pids.add(ProcessHandle.current().pid());
+      }
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(startupTimeout);
+      for (int node = 0; node < launched.size(); node++) {
+        InProcessZooKeeper zk = launched.get(node);
+        zk.awaitServing(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        // starting the launcher also parses its configuration, which it reports separately
+        Map<String, Double> phases = zk.getStartupPhases();
+        StartupReport report = startupReports.get(node);
+        report.add("fork", Math.max(0, StartupReport.millis(forkNanos.get(node))
+            - phases.getOrDefault("configParse", 0.0)));
+        report.addAll(phases);
+      }
+      // only a single server may have requested ephemeral ports
+      clientPort = launched.get(0).getClientPort();
+      shutdownPort = launched.get(0).getShutdownPort();
+      if (proxy) {
+        proxyPort = launched.get(0).getProxyPort();
+      }
+      for (int node = 0; node < launched.size(); node++) {
+        launched.get(node).register(instanceKey(node));
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        launched.forEach(InProcessZooKeeper::abort);
+      }
+    }
+  }
+
+  private List<String> launcherArgs(File zooCfgFile, int node) {
+    List<String> args = new ArrayList<>();
+    args.add("--shutdownPort");
+    args.add(Integer.toString(shutdownPort + node));
+    args.add("--shutdownString");
+    args.add(shutdownString);
+    args.add("--clientPortAddress");
+    args.add(clientPortAddress);
+    if (isEphemeral()) {
+      args.add("--ephemeral");
+    }
+    if (keepPreviousState && compactPreviousState) {
+      args.add("--snapshotOnShutdown");
+    }
+    if (tmpfsDirectory != null) {
+      args.add("--deleteOnShutdown");
+      args.add(dataDirs.get(node).getAbsolutePath());
+    }
+    if (proxy) {
+      args.add("--proxyPort");
+      args.add(Integer.toString(proxyPort == 0 ? 0 : proxyPort + node));
+      args.add("--proxyFaults");
+      args.add(proxyFaults);
+    }
+    if (metricsReport) {
+      args.add("--metricsDir");
+      args.add(logDir(node).getAbsolutePath());
+    }
+    args.add("--zoocfg");
+    args.add(zooCfgFile.getAbsolutePath());
+    return args;
+  }
+
+  /**
+   * The destination of the forked launcher's console output, as chosen by {@code forkOutput}.
+   */
+  private OutputPump.Sink forkOutputSink(int node) throws MojoExecutionException {
+    String prefix = servers > 1 ? "server." + (node + 1) + ": " : "";
+    Log log = getLog();
+    switch (forkOutput) {
+      case "file":
+        if (forkOutputFileSize < 1 || forkOutputFiles < 1) {
+          throw new MojoExecutionException("forkOutputFileSize and forkOutputFiles must be at"
+              + " least 1");
         }
-        if (verifiedStart) {
-          getLog().info("ZooKeeper service has started");
-        } else {
-          getLog().warn("Unable to verify ZooKeeper service started");
+        File console = new File(logDir(node), CONSOLE_FILE);
+        try {
+          return OutputPump.rotatingFiles(console, forkOutputFileSize, forkOutputFiles);
+        } catch (IOException e) {
+          throw new MojoExecutionException("Unable to write " + console.getAbsolutePath(), e);
         }
-      }
-    } catch (IOException e) {
-      throw new MojoFailureException("Unable to start process (or verify that it has started)", e);
+      case "debug":
+        return line -> log.debug(prefix + line);
+      case "info":
+        return line -> log.info(prefix + line);
+      case "warn":
+        return line -> log.warn(prefix + line);
+      case "none":
+        return line -> {};
+      default:
+        throw new MojoExecutionException(
+            "forkOutput must be file, debug, info, warn, or none, but was " + forkOutput);
+    }
+  }
+
+  private String awaitToken(CompletableFuture<String> tokenSeen, long deadline)
+      throws MojoExecutionException, MojoFailureException {
+    try {
+      return tokenSeen.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      throw new MojoFailureException(
+          "ZooKeeper service did not start within " + startupTimeout + " seconds", e);
+    } catch (ExecutionException e) {
+      throw new MojoFailureException("Unable to verify that ZooKeeper service started", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("interrupted", e);
     }
   }
 
@@ -220,22 +1071,222 @@ public class StartZooKeeperMojo extends AbstractZooKeeperMojo {
       throw new MojoExecutionException(
           "Can't create " + "plugin directory: " + zmpDir.getAbsolutePath());
     }
-    baseDir = new File(zmpDir, clientPortAddress + "_" + clientPort);
-    if (!keepPreviousState) {
-      deleteDirectory(baseDir, "plugin");
+    File trash = new File(zmpDir, TRASH_DIR);
+    temporaryBaseDir = clientPort == 0 && !keepPreviousState;
+    if (temporaryBaseDir) {
+      // a service on a port that isn't known yet needs a directory no other build is using
+      discardAbandonedDirectories(trash);
+      try {
+        baseDir = Files.createTempDirectory(zmpDir.toPath(), clientPortAddress + "_0-").toFile();
+        writeOwner(baseDir, ProcessHandle.current().pid());
+      } catch (IOException e) {
+        throw new MojoExecutionException(
+            "Can't create plugin directory in " + zmpDir.getAbsolutePath(), e);
+      }
+    } else {
+      baseDir = new File(zmpDir, clientPortAddress + "_" + clientPort);
+    }
+    if (!keepPreviousState && !temporaryBaseDir) {
+      // the previous state is deleted in the background while the new service starts; a temporary
+      // directory was just created, with its owner, and has none
+      Trash.discard(baseDir, trash, "plugin");
+    } else {
+      Trash.empty(trash);
     }
     if (!baseDir.mkdirs() && !baseDir.isDirectory()) {
       throw new MojoExecutionException(
           "Can't create plugin directory: " + baseDir.getAbsolutePath());
     }
-    dataDir = new File(baseDir, "data");
+  }
+
+  private static void writeOwner(File dir, Long pid) {
+    try {
+      // a released directory has no owner
+      Files.write(new File(dir, OWNER_FILE).toPath(),
+          (pid == null ? "" : pid.toString()).getBytes(UTF_8));
+    } catch (IOException e) {
+      // the directory is then left for the next build which uses this zmpDir to discard
+    }
+  }
+
+  /**
+   * Discard the directories of services on free ports which were released when they stopped, or
+   * whose owner, the build which created one or the server which ran in it, is no longer running.
+   */
+  private void discardAbandonedDirectories(File trash) throws MojoExecutionException {
+    File[] dirs = zmpDir.listFiles((dir, name) -> name.startsWith(clientPortAddress + "_0-")
+        && new File(dir, name).isDirectory());
+    for (File dir : dirs == null ? new File[0] : dirs) {
+      String ownerPid;
+      try {
+        ownerPid = new String(Files.readAllBytes(new File(dir, OWNER_FILE).toPath()), UTF_8).trim();
+      } catch (IOException e) {
+        // another build may have only just created it; give it time to record its owner
+        if (System.currentTimeMillis() - dir.lastModified() < TimeUnit.MINUTES.toMillis(1)) {
+          continue;
+        }
+        ownerPid = "";
+      }
+      Optional<ProcessHandle> owner;
+      try {
+        owner = ownerPid.isEmpty() ? Optional.empty() : ProcessHandle.of(Long.parseLong(ownerPid));
+      } catch (NumberFormatException e) {
+        owner = Optional.empty();
+      }
+      if (!owner.map(ProcessHandle::isAlive).orElse(false)) {
+        getLog().debug("Discarding abandoned plugin directory " + dir.getAbsolutePath());
+        Trash.discard(dir, trash, "plugin");
+      }
+    }
+  }
+
+  private File nodeDir(int node) {
+    // a single server keeps its state directly in the base directory
+    return servers == 1 ? baseDir : new File(baseDir, "server." + (node + 1));
+  }
+
+  private File logDir(int node) {
+    // each service logs in its own directory, so services running at once don't share log files
+    return nodeDir(node);
+  }
+
+  private boolean isEphemeral() {
+    return "ephemeral".equals(durability);
+  }
+
+  private File createDataDir(int node) throws MojoExecutionException {
+    if (tmpfsDirectory == null) {
+      return new File(nodeDir(node), "data");
+    }
+    try {
+      // the launcher deletes this when it shuts down, so it doesn't hold on to memory
+      return Files.createTempDirectory(tmpfsDirectory.toPath(), "zmp-").toFile();
+    } catch (IOException e) {
+      throw new MojoExecutionException(
+          "Can't create data directory in " + tmpfsDirectory.getAbsolutePath(), e);
+    }
+  }
+
+  private boolean isObserver(int node) {
+    return node >= servers - observers;
+  }
+
+  /**
+   * Prepare the data directory of the given server, returning true if the given captured state was
+   * restored into it.
+   */
+  private boolean prepareDataDir(File dataDir, int node, File state)
+      throws MojoExecutionException {
     if (!keepPreviousState) {
       deleteDirectory(dataDir, "data");
     }
+    String[] existing = dataDir.list();
+    boolean empty = existing == null || existing.length == 0;
+    if (state != null && empty) {
+      final long restoreStarted = System.nanoTime();
+      try {
+        long restored = StateArchive.restore(state, new File(dataDir, "version-2"));
+        getLog().info("Restored " + restored + " bytes of captured state from "
+            + state.getAbsolutePath() + " in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - restoreStarted) + " ms");
+      } catch (IOException e) {
+        throw new MojoExecutionException(
+            "Unable to restore captured state from " + state.getAbsolutePath(), e);
+      }
+    } else if (state != null) {
+      getLog().info("Not restoring captured state into non-empty data directory "
+          + dataDir.getAbsolutePath());
+    } else if (keepPreviousState && compactPreviousState && !empty) {
+      final long compactStarted = System.nanoTime();
+      try {
+        String compacted = StateCompaction.compact(dataDir, servers == 1, snapRetainCount);
+        if (compacted != null) {
+          getLog().info("Compacted previous state in " + dataDir.getAbsolutePath() + ": "
+              + compacted + " in "
+              + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - compactStarted) + " ms");
+        }
+      } catch (IOException | RuntimeException e) {
+        getLog().warn("Unable to compact previous state in " + dataDir.getAbsolutePath(), e);
+      }
+    }
+    if (state == null && seedDirectory != null) {
+      if (!seedDirectory.isDirectory()) {
+        throw new MojoExecutionException(
+            "Seed directory does not exist: " + seedDirectory.getAbsolutePath());
+      }
+      if (!empty) {
+        getLog().info("Not seeding non-empty data directory " + dataDir.getAbsolutePath());
+      } else {
+        getLog().info("Seeding data directory from " + seedDirectory.getAbsolutePath());
+        seedDirectory(seedDirectory, dataDir);
+      }
+    }
+    if (servers > 1) {
+      if (!dataDir.mkdirs() && !dataDir.isDirectory()) {
+        throw new MojoExecutionException(
+            "Can't create data directory: " + dataDir.getAbsolutePath());
+      }
+      File myid = new File(dataDir, "myid");
+      try {
+        Files.write(myid.toPath(), Integer.toString(node + 1).getBytes(UTF_8));
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to create " + myid.getAbsolutePath(), e);
+      }
+    }
+    return state != null && empty;
+  }
+
+  /**
+   * The configuration of the implementation which accepts client connections, set in
+   * {@code zoo.cfg} as entries which ZooKeeper sets as {@code zookeeper.*} system properties.
+   */
+  private void setConnectionProperties(Properties zooCfg) throws MojoExecutionException {
+    if (selectorThreads < 0 || workerThreads < 0 || globalOutstandingLimit < 0) {
+      throw new MojoExecutionException(
+          "selectorThreads, workerThreads, and globalOutstandingLimit can't be negative");
+    }
+    String factory = connectionFactory();
+    if (factory != null) {
+      zooCfg.setProperty("serverCnxnFactory", factory);
+    }
+    if (NETTY_FACTORY.equals(factory)) {
+      if (selectorThreads > 0) {
+        getLog().warn("Ignoring selectorThreads, which only applies to the NIO implementation");
+      }
+      if (workerThreads > 0 && !fork) {
+        // Netty reads its thread count from a system property shared by the whole JVM
+        getLog().warn("Ignoring workerThreads, which only applies to a forked Netty server");
+      }
+    } else {
+      if (selectorThreads > 0) {
+        zooCfg.setProperty("nio.numSelectorThreads", Integer.toString(selectorThreads));
+      }
+      if (workerThreads > 0) {
+        zooCfg.setProperty("nio.numWorkerThreads", Integer.toString(workerThreads));
+      }
+    }
+    if (globalOutstandingLimit > 0) {
+      zooCfg.setProperty("globalOutstandingLimit", Integer.toString(globalOutstandingLimit));
+    }
+  }
+
+  private String connectionFactory() {
+    if (serverCnxnFactory == null || serverCnxnFactory.trim().isEmpty()) {
+      return null;
+    }
+    switch (serverCnxnFactory.trim()) {
+      case "nio":
+        return NIO_FACTORY;
+      case "netty":
+        return NETTY_FACTORY;
+      default:
+        return serverCnxnFactory.trim();
+    }
   }
 
-  private File createZooCfg() throws MojoExecutionException, MojoFailureException {
-    File confDir = new File(baseDir, "conf");
+  private File createZooCfg(File dataDir, int node)
+      throws MojoExecutionException, MojoFailureException {
+    File confDir = new File(nodeDir(node), "conf");
     if (!confDir.mkdirs() && !confDir.isDirectory()) {
       throw new MojoExecutionException(
           "Can't create configuration directory: " + confDir.getAbsolutePath());
@@ -251,10 +1302,62 @@ public class StartZooKeeperMojo extends AbstractZooKeeperMojo {
     zooCfg.setProperty("tickTime", tickTime + "");
     zooCfg.setProperty("initLimit", initLimit + "");
     zooCfg.setProperty("syncLimit", syncLimit + "");
-    zooCfg.setProperty("clientPortAddress", clientPortAddress);
-    zooCfg.setProperty("clientPort", clientPort + "");
+    if (clientPort != 0) {
+      // ZooKeeper rejects an address without a port; the launcher handles a zero port instead
+      zooCfg.setProperty("clientPortAddress", clientPortAddress);
+    }
+    zooCfg.setProperty("clientPort", clientPort + node + "");
     zooCfg.setProperty("maxClientCnxns", maxClientCnxns + "");
+    setConnectionProperties(zooCfg);
     zooCfg.setProperty("dataDir", dataDir.getAbsolutePath());
+    if (purgeInterval > 0) {
+      zooCfg.setProperty("autopurge.snapRetainCount", Integer.toString(snapRetainCount));
+      zooCfg.setProperty("autopurge.purgeInterval", Integer.toString(purgeInterval));
+    }
+    zooCfg.setProperty("metricsProvider.className", metricsProvider);
+    if (metricsProviderProperties != null) {
+      metricsProviderProperties.forEach((key, value) -> zooCfg.setProperty("metricsProvider." + key,
+          "httpPort".equals(key) ? Integer.toString(Integer.parseInt(value) + node) : value));
+    }
+    if (isEphemeral()) {
+      // ZooKeeper sets these as zookeeper.* system properties, before its persistence classes load
+      zooCfg.setProperty("forceSync", "no");
+      zooCfg.setProperty("preAllocSize", "1024");
+      zooCfg.setProperty("snapCount", "10000000");
+    } else if (!fork) {
+      // in-process servers share these properties, so ZooKeeper's defaults are set explicitly, for
+      // an ephemeral server's settings not to apply to a durable one running at the same time
+      zooCfg.setProperty("forceSync", "yes");
+      zooCfg.setProperty("preAllocSize", "65536");
+      zooCfg.setProperty("snapCount", "100000");
+    }
+    if (servers > 1) {
+      // always run as part of an ensemble, even when only one server can vote
+      zooCfg.setProperty("standaloneEnabled", "false");
+      for (int peer = 0; peer < servers; peer++) {
+        zooCfg.setProperty("server." + (peer + 1), clientPortAddress + ":" + (peerPort + peer)
+            + ":" + (electionPort + peer) + (isObserver(peer) ? ":observer" : ""));
+      }
+      if (isObserver(node)) {
+        zooCfg.setProperty("peerType", "observer");
+      }
+    }
+    if (!fork) {
+      // ZooKeeper sets unrecognized configuration entries as system properties prefixed with
+      // "zookeeper.", which is the only way to pass them to an in-process server
+      zooCfg.setProperty("admin.enableServer", "false");
+      if (jvmArgs != null) {
+        jvmArgs.stream().map(String::trim).filter(s -> !s.isEmpty()).forEach(arg -> {
+          int eq = arg.indexOf('=');
+          if (arg.startsWith("-Dzookeeper.") && eq > 0) {
+            zooCfg.setProperty(arg.substring("-Dzookeeper.".length(), eq), arg.substring(eq + 1));
+          } else {
+            getLog().warn("Ignoring JVM argument for in-process ZooKeeper: " + arg);
+          }
+        });
+      }
+      writeInProcessLoggingConfig(confDir, new File(logDir(node), "zkServer.log"));
+    }
 
     try (Writer fileWriter = new OutputStreamWriter(new FileOutputStream(zooCfgFile), UTF_8)) {
       zooCfg.store(fileWriter, null);
@@ -264,20 +1367,42 @@ public class StartZooKeeperMojo extends AbstractZooKeeperMojo {
     return zooCfgFile;
   }
 
+  private void writeInProcessLoggingConfig(File confDir, File logFile)
+      throws MojoFailureException {
+    File loggingCfgFile = new File(confDir, "simplelogger.properties");
+    Properties loggingCfg = new Properties();
+    loggingCfg.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "info");
+    loggingCfg.setProperty("org.slf4j.simpleLogger.logFile", logFile.getAbsolutePath());
+    try (Writer fileWriter = new OutputStreamWriter(new FileOutputStream(loggingCfgFile), UTF_8)) {
+      loggingCfg.store(fileWriter, null);
+    } catch (IOException e) {
+      throw new MojoFailureException("Unable to create " + loggingCfgFile.getAbsolutePath(), e);
+    }
+  }
+
   private String getJavaCommand() {
     return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
 
   }
 
-  private String getClasspath() {
-    StringBuilder classpath = new StringBuilder();
-    String delim = File.pathSeparator;
-    classpath.append(plugin.getPluginArtifact().getFile().getAbsolutePath());
-    for (Artifact artifact : plugin.getArtifacts()) {
-      if ("jar".equals(artifact.getType()) && !"provided".equals(artifact.getScope())) {
-        classpath.append(delim).append(artifact.getFile().getAbsolutePath());
+  private List<File> getClasspathFiles() {
+    return LauncherClasspath.resolve(plugin,
+        "true".equalsIgnoreCase(systemProperty("zookeeper.admin.enableServer")));
+  }
+
+  /**
+   * The value of a system property set for the server in {@code jvmArgs}, or null if it isn't.
+   */
+  private String systemProperty(String name) {
+    String value = null;
+    if (jvmArgs != null) {
+      for (String arg : jvmArgs) {
+        // later arguments take precedence, as they do on the command line
+        if (arg.trim().startsWith("-D" + name + "=")) {
+          value = arg.trim().substring(name.length() + 3);
+        }
       }
     }
-    return classpath.toString();
+    return value;
   }
 }
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The time taken by each phase of starting one ZooKeeper server, some measured by the plugin and
+ * some by the launcher, written as JSON beside the server's {@code zoo.cfg}, so that a slower
+ * start can be traced to the phase which grew.
+ */
+final class StartupReport {
+
+  static final String FILE = "startup-report.json";
+
+  private static final Pattern PHASE = Pattern.compile("(\\w+)=(\\d+(?:\\.\\d+)?)");
+
+  private final Map<String, Double> phases = new LinkedHashMap<>();
+
+  /**
+   * Add the time since the given {@link System#nanoTime()} to the named phase.
+   */
+  void addSince(String phase, long startNanos) {
+    add(phase, millis(System.nanoTime() - startNanos));
+  }
+
+  void add(String phase, double millis) {
+    phases.merge(phase, millis, Double::sum);
+  }
+
+  void addAll(Map<String, Double> launcherPhases) {
+    launcherPhases.forEach(this::add);
+  }
+
+  Map<String, Double> phases() {
+    return phases;
+  }
+
+  /**
+   * Write the report to the given directory, with the process running the server and the connect
+   * string it was started with.
+   */
+  File write(File directory, long pid, String connectString, double totalMillis)
+      throws IOException {
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("pid", pid);
+    json.put("connectString", connectString);
+    json.put("totalMillis", rounded(totalMillis));
+    Map<String, BigDecimal> rounded = new LinkedHashMap<>();
+    phases.forEach((phase, millis) -> rounded.put(phase, rounded(millis)));
+    json.put("phases", rounded);
+    File report = new File(directory, FILE);
+    JsonReports.write(report, json);
+    return report;
+  }
+
+  /**
+   * Format phases on a single line, as the forked launcher reports them when it has started.
+   */
+  static String formatPhases(Map<String, Double> phases) {
+    StringBuilder line = new StringBuilder();
+    phases.forEach((name, millis) -> line.append(line.length() == 0 ? "" : " ").append(name)
+        .append('=').append(format(millis)));
+    return line.toString();
+  }
+
+  /**
+   * Parse the phases reported by the forked launcher, in the format of
+   * {@link #formatPhases(Map)}, from its startup line.
+   */
+  static Map<String, Double> parsePhases(String line) {
+    Map<String, Double> parsed = new LinkedHashMap<>();
+    int start = line.indexOf("phases: ");
+    if (start >= 0) {
+      Matcher phase = PHASE.matcher(line.substring(start));
+      while (phase.find()) {
+        parsed.put(phase.group(1), Double.parseDouble(phase.group(2)));
+      }
+    }
+    return parsed;
+  }
+
+  static double millis(long nanos) {
+    return Math.max(nanos, 0) / 1e6;
+  }
+
+  // to the microsecond, as the phases are logged
+  private static BigDecimal rounded(double millis) {
+    return BigDecimal.valueOf(millis).setScale(3, RoundingMode.HALF_UP);
+  }
+
+  private static String format(double millis) {
+    return String.format(Locale.ROOT, "%.3f", millis);
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import net.revelc.code.zookeeper.maven.plugin.ZnodeFixture.Znode;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.Util;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+/**
+ * A Snappy-compressed archive of a server's state: a snapshot, and the transaction logs with any
+ * transactions which were still being applied while it was written. Archives are kept in a cache
+ * directory, named for a hash of the fixtures which produced the state, so that a later build
+ * loading the same fixtures can restore the archive instead.
+ */
+final class StateArchive {
+
+  // bump this when the archive format, or what the key covers, changes
+  private static final String FORMAT = "zmp-state-1";
+  private static final String SUFFIX = ".state.sz";
+
+  private StateArchive() {}
+
+  /**
+   * A hash of the nodes the given fixture files create, including any files they refer to, which
+   * identifies the state loading them produces.
+   */
+  static String key(List<File> fixtures) throws MojoExecutionException {
+    return key(ZnodeFixture.read(fixtures));
+  }
+
+  /**
+   * A hash of the given nodes, as read from fixture files.
+   */
+  static String key(Map<String, Znode> nodes) {
+    MessageDigest digest = Digests.sha256();
+    digest.update((FORMAT + "\n").getBytes(UTF_8));
+    for (Znode node : new TreeMap<>(nodes).values()) {
+      digest.update((node.path + "\n" + node.mode + "\n" + node.acl + "\n" + node.data.length
+          + "\n").getBytes(UTF_8));
+      digest.update(node.data);
+    }
+    return Digests.hex(digest, digest.getDigestLength());
+  }
+
+  static File file(File cacheDirectory, String key) {
+    return new File(cacheDirectory, key + SUFFIX);
+  }
+
+  /**
+   * Archive the given snapshot, and the transaction logs needed with it, from its
+   * {@code version-2} directory, replacing the archive atomically, so that a concurrent build
+   * never restores a partial one.
+   */
+  static void write(File archive, File snapshot) throws IOException {
+    File dir = snapshot.getParentFile();
+    File[] logs = FileTxnLog.getLogFiles(dir.listFiles(),
+        Util.getZxidFromName(snapshot.getName(), "snapshot"));
+    List<File> files = new ArrayList<>();
+    files.add(snapshot);
+    files.addAll(Arrays.asList(logs));
+
+    File parent = archive.getParentFile();
+    if (!parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Can't create directory " + parent.getAbsolutePath());
+    }
+    File tmp = new File(parent, archive.getName() + "." + UUID.randomUUID());
+    try {
+      try (DataOutputStream out = new DataOutputStream(new SnappyFramedOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))))) {
+        out.writeUTF(FORMAT);
+        for (File file : files) {
+          out.writeUTF(file.getName());
+          long length = file == snapshot ? file.length() : usedLength(file);
+          out.writeLong(length);
+          try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            copy(in, out, length);
+          }
+        }
+        out.writeUTF("");
+      }
+      Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  /**
+   * Restore the archived files into the given {@code version-2} directory, returning the number
+   * of bytes restored.
+   */
+  static long restore(File archive, File dir) throws IOException {
+    if (!dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Can't create directory " + dir.getAbsolutePath());
+    }
+    long restored = 0;
+    try (DataInputStream in = new DataInputStream(new SnappyFramedInputStream(
+        new BufferedInputStream(Files.newInputStream(archive.toPath()))))) {
+      if (!FORMAT.equals(in.readUTF())) {
+        throw new IOException("Unknown format of state archive " + archive.getAbsolutePath());
+      }
+      for (String name; !(name = in.readUTF()).isEmpty();) {
+        if (name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+          throw new IOException("Bad file name '" + name + "' in " + archive.getAbsolutePath());
+        }
+        long length = in.readLong();
+        try (OutputStream out = new BufferedOutputStream(
+            Files.newOutputStream(new File(dir, name).toPath()))) {
+          copy(in, out, length);
+        }
+        restored += length;
+      }
+    }
+    return restored;
+  }
+
+  /**
+   * The length of a transaction log without the zeros ZooKeeper preallocates after its last
+   * transaction. Every transaction ends with a non-zero marker byte, so none is cut short.
+   */
+  private static long usedLength(File log) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(log, "r")) {
+      byte[] buffer = new byte[64 * 1024];
+      for (long end = file.length(); end > 0;) {
+        int length = (int) Math.min(buffer.length, end);
+        file.seek(end - length);
+        file.readFully(buffer, 0, length);
+        for (int i = length - 1; i >= 0; i--) {
+          if (buffer[i] != 0) {
+            return end - length + i + 1;
+          }
+        }
+        end -= length;
+      }
+      return 0;
+    }
+  }
+
+  private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+    for (long remaining = length; remaining > 0;) {
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+      out.write(buffer, 0, read);
+      remaining -= read;
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.PurgeTxnLog;
+import org.apache.zookeeper.server.persistence.FileSnap;
+import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.Util;
+
+/**
+ * Compacts the state a server left in its data directory before the next server starts with it.
+ * Transactions logged after the last snapshot, as by a server which didn't stop cleanly, are rolled
+ * into a new snapshot, and all but the most recent snapshots, with the logs they need, are deleted,
+ * so the files kept don't grow with every build which reuses the directory.
+ */
+final class StateCompaction {
+
+  private StateCompaction() {}
+
+  /**
+   * Compact the state in the given data directory, keeping the given number of snapshots, and
+   * returning a description of what was done, or null if it has no state. Transactions are only
+   * rolled into a snapshot if {@code snapshot} is true, as they may not all have been committed by
+   * an ensemble.
+   */
+  static String compact(File dataDir, boolean snapshot, int snapRetainCount) throws IOException {
+    int before = countStateFiles(dataDir);
+    if (before == 0) {
+      return null;
+    }
+    String rolled = "";
+    if (snapshot) {
+      FileTxnSnapLog snapLog = new FileTxnSnapLog(dataDir, dataDir);
+      try {
+        File latest = snapLog.findMostRecentSnapshot();
+        long snapshotZxid = latest == null ? -1
+            : Util.getZxidFromName(latest.getName(), FileSnap.SNAPSHOT_FILE_PREFIX);
+        // only load the state if the logs go past the snapshot, which they don't after a snapshot
+        // on shutdown
+        if (snapLog.getLastLoggedZxid() > snapshotZxid) {
+          DataTree tree = new DataTree();
+          ConcurrentHashMap<Long, Integer> sessions = new ConcurrentHashMap<>();
+          long zxid = snapLog.restore(tree, sessions, (header, record, digest) -> {});
+          snapLog.save(tree, sessions, true);
+          rolled = "rolled transactions up to 0x" + Long.toHexString(zxid) + " into a snapshot, ";
+        }
+      } finally {
+        snapLog.close();
+      }
+    }
+    PurgeTxnLog.purge(dataDir, dataDir, snapRetainCount);
+    // a new snapshot is one more file to delete
+    int deleted = before - countStateFiles(dataDir) + (rolled.isEmpty() ? 0 : 1);
+    return rolled + "deleted " + deleted + " old snapshots and transaction logs";
+  }
+
+  private static int countStateFiles(File dataDir) {
+    String[] files = new File(dataDir, "version-2").list(
+        (dir, name) -> name.startsWith(FileSnap.SNAPSHOT_FILE_PREFIX + ".")
+            || name.startsWith(FileTxnLog.LOG_FILE_PREFIX + "."));
+    return files == null ? 0 : files.length;
+  }
+
+}
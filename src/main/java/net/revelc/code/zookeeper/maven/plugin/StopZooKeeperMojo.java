@@ -14,23 +14,24 @@
 
 package net.revelc.code.zookeeper.maven.plugin;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.ConnectException;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
 
 /**
  * Stops the service running the ZooKeeper server.
@@ -48,39 +49,141 @@ public class StopZooKeeperMojo extends AbstractZooKeeperMojo {
 
   @Override
   protected void runMojo() throws MojoFailureException, MojoExecutionException {
-    ByteBuffer shutdownMsg = UTF_8.encode(shutdownString.trim() + "\r\n");
-    try (Socket s = new Socket(clientPortAddress, shutdownPort);
-        OutputStream os = s.getOutputStream();
-        WritableByteChannel channel = Channels.newChannel(os)) {
-      channel.write(shutdownMsg);
-      os.flush();
-      getLog().info("Shutdown message sent.");
+    File leaseFile = leaseFile();
+    resolvePorts();
+    // close any sessions kept open by other goals, such as those owning ephemeral fixture nodes
+    ZooKeeperClients.closeRetained(retainKey());
 
-      if (shutdownWait > 0) {
-        long shutdownWaitMillis = TimeUnit.SECONDS.toMillis(shutdownWait);
-        if (shutdownWaitMillis <= Integer.MAX_VALUE) {
-          s.setSoTimeout((int) shutdownWaitMillis);
-          try (Scanner scanner = new Scanner(s.getInputStream(), UTF_8.name())) {
-            while (scanner.hasNextLine()) {
-              String response = scanner.nextLine();
-              if ("done".equals(response)) {
-                getLog().info("Shutdown response received: success.");
-                break;
-              }
+    if (!shared) {
+      stopServers();
+      return;
+    }
+    try (SharedLease lease = SharedLease.acquire(leaseFile)) {
+      Properties leased = lease.read();
+      if (buildId().equals(leased.getProperty("build"))) {
+        int references = Integer.parseInt(leased.getProperty("references")) - 1;
+        List<String> pending = pendingProjects(leased.getProperty("attached").split(","));
+        if (references > 0 || !pending.isEmpty()) {
+          leased.setProperty("references", Integer.toString(references));
+          lease.write(leased);
+          getLog().info("Leaving shared ZooKeeper service running; " + references
+              + " other projects are using it, and " + pending.size() + " have yet to start");
+          return;
+        }
+      } else {
+        getLog().warn("No shared ZooKeeper lease found for this build; stopping anyway");
+      }
+      // hold the lease until stopped, so no other project attaches in the meantime
+      lease.write(new Properties());
+      stopServers();
+    }
+  }
+
+  /**
+   * Find the projects in this build which run the start goal for the same shared service, but
+   * haven't attached to it yet. Since builds stop when a project fails, these are expected to
+   * start later.
+   */
+  private List<String> pendingProjects(String[] attached) {
+    List<String> started = Arrays.asList(attached);
+    List<String> pending = new ArrayList<>();
+    for (MavenProject other : session.getProjects()) {
+      if (!started.contains(other.getId()) && startsSharedService(other)) {
+        pending.add(other.getId());
+      }
+    }
+    return pending;
+  }
+
+  /**
+   * Whether the given project runs a start goal which would attach to the same shared service,
+   * which is identified by its lease file.
+   */
+  private boolean startsSharedService(MavenProject other) {
+    for (Plugin buildPlugin : other.getBuildPlugins()) {
+      if (plugin.getGroupId().equals(buildPlugin.getGroupId())
+          && plugin.getArtifactId().equals(buildPlugin.getArtifactId())) {
+        for (PluginExecution execution : buildPlugin.getExecutions()) {
+          if (execution.getGoals().contains("start")) {
+            // the plugin's configuration is already merged into that of its executions
+            Xpp3Dom configuration = (Xpp3Dom) (execution.getConfiguration() != null
+                ? execution.getConfiguration()
+                : buildPlugin.getConfiguration());
+            if (Boolean.parseBoolean(parameter(other, configuration, "shared", "false"))
+                && leaseFile().getAbsoluteFile().toPath().normalize()
+                    .equals(leaseFile(other, configuration).toPath().normalize())) {
+              return true;
             }
-          } catch (SocketTimeoutException e) {
-            throw new MojoExecutionException("Shutdown response not received within the time limit",
-                e);
           }
-        } else {
-          throw new MojoExecutionException("shutdownWait too large; can't convert to millis");
         }
       }
+    }
+    return false;
+  }
+
+  private File leaseFile(MavenProject other, Xpp3Dom configuration) {
+    File otherZmpDir = new File(parameter(other, configuration, "zmpDir",
+        other.getBuild().getDirectory() + File.separator + "zmp"));
+    if (!otherZmpDir.isAbsolute()) {
+      otherZmpDir = new File(other.getBasedir(), otherZmpDir.getPath());
+    }
+    return new File(otherZmpDir.getAbsoluteFile(),
+        parameter(other, configuration, "clientPortAddress", "127.0.0.1") + "_"
+            + parameter(other, configuration, "clientPort", "2181") + ".lease");
+  }
+
+  /**
+   * The value of a parameter of the given project's start goal, as Maven would set it: from its
+   * configuration, or else from the parameter's {@code zmp.*} property, or else its default.
+   */
+  private String parameter(MavenProject other, Xpp3Dom configuration, String name,
+      String defaultValue) {
+    Xpp3Dom child = configuration == null ? null : configuration.getChild(name);
+    if (child != null && child.getValue() != null) {
+      return child.getValue().trim();
+    }
+    String property = "zmpDir".equals(name) ? "zmp.directory" : "zmp." + name;
+    String value = session.getUserProperties().getProperty(property,
+        session.getSystemProperties().getProperty(property));
+    if (value == null) {
+      value = other.getProperties().getProperty(property);
+    }
+    return value == null ? defaultValue : value.trim();
+  }
+
+  private void stopServers() throws MojoFailureException, MojoExecutionException {
+    for (int node = 0; node < servers; node++) {
+      InProcessZooKeeper inProcess = InProcessZooKeeper.remove(instanceKey(node));
+      if (inProcess != null) {
+        inProcess.stop(shutdownWait);
+        getLog().info("In-process ZooKeeper service stopped.");
+      } else {
+        sendShutdown(shutdownPort + node);
+      }
+    }
+    StartZooKeeperMojo.releaseTemporaryDirectory(instanceKey());
+  }
+
+  private void sendShutdown(int port) throws MojoFailureException, MojoExecutionException {
+    long shutdownWaitMillis = TimeUnit.SECONDS.toMillis(Math.max(shutdownWait, 0));
+    if (shutdownWaitMillis > Integer.MAX_VALUE) {
+      throw new MojoExecutionException("shutdownWait too large; can't convert to millis");
+    }
+    String response;
+    try {
+      response = ZooKeeperClients.control(clientPortAddress, port, shutdownString,
+          (int) shutdownWaitMillis);
     } catch (ConnectException e) {
       throw new MojoFailureException("ZooKeeper service not running", e);
+    } catch (SocketTimeoutException e) {
+      throw new MojoExecutionException("Shutdown response not received within the time limit", e);
     } catch (IOException e) {
       throw new MojoFailureException(
-          "Couldn't write shutdown message to " + clientPortAddress + ":" + shutdownPort, e);
+          "Couldn't write shutdown message to " + clientPortAddress + ":" + port, e);
+    }
+    getLog().info("Shutdown message sent.");
+    if (Arrays.asList(response.split("\\r?\\n")).contains("done")) {
+      getLog().info("Shutdown response received: success.");
     }
   }
 }
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Removes directories without waiting for them to be deleted. A directory is renamed into a trash
+ * directory beside it, which is a single atomic operation, and then deleted by background threads,
+ * in parallel, while the build goes on. Anything the build ends before deleting stays in the trash
+ * until the next build which uses the same trash directory deletes it.
+ */
+final class Trash {
+
+  // deleting is bound by the file system rather than the CPU, so use a few threads even on one CPU
+  private static final ForkJoinPool deleters =
+      new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+  private static final Set<Path> deleting = ConcurrentHashMap.newKeySet();
+  private static final int BATCH_SIZE = 64;
+
+  private Trash() {}
+
+  /**
+   * Move the given directory, if it exists, into the given trash directory, and delete everything
+   * in the trash in the background. If it can't be moved, such as when the trash is on another file
+   * system, it is deleted before this returns instead.
+   */
+  static void discard(File dir, File trash, String dirType) throws MojoExecutionException {
+    if (dir.exists()) {
+      try {
+        Files.createDirectories(trash.toPath());
+        Files.move(dir.toPath(), trash.toPath().resolve(dir.getName() + "-" + UUID.randomUUID()),
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        AbstractZooKeeperMojo.deleteDirectory(dir, dirType);
+      }
+    }
+    empty(trash);
+  }
+
+  /**
+   * Delete everything in the given trash directory in the background, except what is already being
+   * deleted.
+   */
+  static void empty(File trash) {
+    File[] discarded = trash.listFiles();
+    for (File file : discarded == null ? new File[0] : discarded) {
+      Path path = file.toPath();
+      if (deleting.add(path)) {
+        deleters.execute(() -> {
+          try {
+            new Delete(Collections.singletonList(path)).invoke();
+          } catch (UncheckedIOException e) {
+            // whatever is left is deleted by a later build
+          } finally {
+            deleting.remove(path);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Wait for the background deletes to finish, returning false if they didn't in time.
+   */
+  static boolean await(long timeout, TimeUnit unit) {
+    return deleters.awaitQuiescence(timeout, unit);
+  }
+
+  /**
+   * Deletes files and directory trees, splitting large directories into batches which are deleted
+   * in parallel. A directory is deleted once everything in it has been.
+   */
+  private static final class Delete extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<Path> paths;
+
+    Delete(List<Path> paths) {
+      this.paths = paths;
+    }
+
+    @Override
+    protected void compute() {
+      if (paths.size() > BATCH_SIZE) {
+        int middle = paths.size() / 2;
+        invokeAll(new Delete(paths.subList(0, middle)),
+            new Delete(paths.subList(middle, paths.size())));
+        return;
+      }
+      try {
+        for (Path path : paths) {
+          if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+              stream.forEach(entries::add);
+            }
+            new Delete(entries).invoke();
+          }
+          Files.deleteIfExists(path);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.Perms;
+import org.apache.zookeeper.common.PathUtils;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+
+/**
+ * A tree of znodes read from JSON or YAML fixture files. Each node is an object with either an
+ * absolute {@code path} or a {@code name} relative to its parent, and optionally {@code data} (a
+ * string) or {@code file} (relative to the fixture file), {@code acl} ({@code open}, {@code read},
+ * or a list of {@code scheme}, {@code id}, and {@code perms} objects, with perms from
+ * {@code crwda}), {@code ephemeral} and {@code sequential} flags, and {@code children}. A file may
+ * contain a single node or a list of nodes. Missing ancestors are created empty.
+ */
+final class ZnodeFixture {
+
+  /**
+   * A single znode to create.
+   */
+  static final class Znode {
+    final String path;
+    final byte[] data;
+    final List<ACL> acl;
+    final CreateMode mode;
+    final boolean implicit;
+
+    Znode(String path, byte[] data, List<ACL> acl, CreateMode mode, boolean implicit) {
+      this.path = path;
+      this.data = data;
+      this.acl = acl;
+      this.mode = mode;
+      this.implicit = implicit;
+    }
+
+    int depth() {
+      return (int) path.chars().filter(c -> c == '/').count();
+    }
+  }
+
+  private ZnodeFixture() {}
+
+  /**
+   * Read the fixture files, returning the nodes to create by path, including missing ancestors.
+   */
+  static Map<String, Znode> read(List<File> files) throws MojoExecutionException {
+    Map<String, Znode> nodes = new LinkedHashMap<>();
+    for (File file : files) {
+      String name = file.getName().toLowerCase(Locale.ROOT);
+      ObjectMapper mapper = name.endsWith(".yaml") || name.endsWith(".yml")
+          ? new ObjectMapper(new YAMLFactory()) : new ObjectMapper();
+      try {
+        parse(mapper.readTree(file), "", file.getAbsoluteFile().getParentFile(), nodes);
+      } catch (IOException | IllegalArgumentException e) {
+        throw new MojoExecutionException(
+            "Invalid znode fixture " + file.getAbsolutePath() + ": " + e.getMessage(), e);
+      }
+    }
+
+    // create any missing ancestors, as empty persistent nodes
+    for (String path : new ArrayList<>(nodes.keySet())) {
+      for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+        String parent = path.substring(0, i);
+        Znode existing = nodes.get(parent);
+        if (existing == null) {
+          nodes.put(parent,
+              new Znode(parent, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT, true));
+        } else if (existing.mode != CreateMode.PERSISTENT) {
+          throw new MojoExecutionException(
+              "Fixture node " + parent + " can't have children, because it is " + existing.mode);
+        }
+      }
+    }
+    return nodes;
+  }
+
+  private static void parse(JsonNode node, String parentPath, File baseDir,
+      Map<String, Znode> nodes) throws IOException {
+    if (node.isArray()) {
+      for (JsonNode child : node) {
+        parse(child, parentPath, baseDir, nodes);
+      }
+      return;
+    }
+    if (!node.isObject()) {
+      throw new IllegalArgumentException("expected a node object, but found " + node);
+    }
+
+    String path;
+    if (node.hasNonNull("path")) {
+      path = node.get("path").asText();
+    } else if (node.hasNonNull("name")) {
+      path = parentPath + "/" + node.get("name").asText();
+    } else {
+      throw new IllegalArgumentException("node has neither a path nor a name: " + node);
+    }
+
+    boolean ephemeral = node.path("ephemeral").asBoolean(false);
+    boolean sequential = node.path("sequential").asBoolean(false);
+    CreateMode mode = ephemeral
+        ? (sequential ? CreateMode.EPHEMERAL_SEQUENTIAL : CreateMode.EPHEMERAL)
+        : (sequential ? CreateMode.PERSISTENT_SEQUENTIAL : CreateMode.PERSISTENT);
+
+    // the root node exists already, but may be used to group its children
+    if (!"/".equals(path)) {
+      PathUtils.validatePath(path, sequential);
+      byte[] data = new byte[0];
+      if (node.hasNonNull("file")) {
+        File dataFile = new File(node.get("file").asText());
+        if (!dataFile.isAbsolute()) {
+          dataFile = new File(baseDir, dataFile.getPath());
+        }
+        data = Files.readAllBytes(dataFile.toPath());
+      } else if (node.hasNonNull("data")) {
+        data = node.get("data").asText().getBytes(UTF_8);
+      }
+      Znode znode = new Znode(path, data, parseAcl(node.get("acl")), mode, false);
+      if (nodes.putIfAbsent(path, znode) != null) {
+        throw new IllegalArgumentException("duplicate node " + path);
+      }
+    }
+
+    if (node.has("children")) {
+      if (mode != CreateMode.PERSISTENT) {
+        throw new IllegalArgumentException(path + " can't have children, because it is " + mode);
+      }
+      parse(node.get("children"), "/".equals(path) ? "" : path, baseDir, nodes);
+    }
+  }
+
+  private static List<ACL> parseAcl(JsonNode acl) {
+    if (acl == null || acl.isNull() || "open".equals(acl.asText())) {
+      return Ids.OPEN_ACL_UNSAFE;
+    } else if ("read".equals(acl.asText())) {
+      return Ids.READ_ACL_UNSAFE;
+    } else if (!acl.isArray()) {
+      throw new IllegalArgumentException("unknown acl " + acl);
+    }
+    List<ACL> acls = new ArrayList<>();
+    for (JsonNode entry : acl) {
+      int perms = 0;
+      for (char c : entry.path("perms").asText("crwda").toCharArray()) {
+        switch (c) {
+          case 'c':
+            perms |= Perms.CREATE;
+            break;
+          case 'r':
+            perms |= Perms.READ;
+            break;
+          case 'w':
+            perms |= Perms.WRITE;
+            break;
+          case 'd':
+            perms |= Perms.DELETE;
+            break;
+          case 'a':
+            perms |= Perms.ADMIN;
+            break;
+          default:
+            throw new IllegalArgumentException("unknown permission '" + c + "' in " + entry);
+        }
+      }
+      acls.add(new ACL(perms,
+          new Id(entry.path("scheme").asText("world"), entry.path("id").asText("anyone"))));
+    }
+    return acls;
+  }
+
+}
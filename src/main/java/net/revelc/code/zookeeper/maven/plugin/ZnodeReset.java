@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.ZKClientConfig;
+import org.apache.zookeeper.common.ZKConfig;
+
+/**
+ * Deletes every znode from a running ZooKeeper service, except for ZooKeeper's own
+ * {@code /zookeeper} subtree, returning it to the state of a freshly started server, or deletes
+ * just the given subtrees.
+ */
+final class ZnodeReset {
+
+  private static final int DEFAULT_SESSIONS = 4;
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final int DEFAULT_MAX_IN_FLIGHT = 32;
+  private static final int MAX_RESPONSE_BYTES = 256 * 1024 * 1024;
+
+  private ZnodeReset() {}
+
+  /**
+   * Delete all znodes with the default level of concurrency, returning the number deleted.
+   */
+  static int run(String connectString) throws MojoExecutionException {
+    return run(connectString, DEFAULT_SESSIONS, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  /**
+   * Delete all znodes, deepest first, returning the number deleted. Both listing the tree and
+   * deleting it are done with batches of operations in asynchronous {@code multi()} requests,
+   * spread across several sessions, with a bounded number of requests in flight at once.
+   */
+  static int run(String connectString, int sessionCount, int batchSize, int maxInFlight)
+      throws MojoExecutionException {
+    return delete(connectString, Collections.singletonList("/"), false, sessionCount, batchSize,
+        maxInFlight);
+  }
+
+  /**
+   * Delete the given znodes, and everything below them, in the same way, returning the number
+   * deleted. Any which don't exist are skipped.
+   */
+  static int delete(String connectString, List<String> roots) throws MojoExecutionException {
+    return delete(connectString, roots, true, DEFAULT_SESSIONS, DEFAULT_BATCH_SIZE,
+        DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  private static int delete(String connectString, List<String> roots, boolean includeRoots,
+      int sessionCount, int batchSize, int maxInFlight) throws MojoExecutionException {
+    // a batch listing many parents can return a response much larger than any single znode
+    ZKClientConfig clientConfig = new ZKClientConfig();
+    clientConfig.setProperty(ZKConfig.JUTE_MAXBUFFER, Integer.toString(MAX_RESPONSE_BYTES));
+    List<ZooKeeper> sessions = ZooKeeperClients.connect(connectString, Math.max(sessionCount, 1),
+        ZooKeeperClients.CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS, clientConfig);
+    int size = Math.max(batchSize, 1);
+    int permits = Math.max(maxInFlight, 1);
+    try {
+      TreeMap<Integer, List<String>> levels = list(sessions, roots, size, permits);
+      if (includeRoots && !roots.isEmpty()) {
+        levels.put(0, roots);
+      }
+
+      // a znode can only be deleted once its children are gone, so delete one level at a time
+      MultiPipeline pipeline =
+          new MultiPipeline(sessions, permits, (op, code) -> code == Code.NONODE);
+      for (List<String> level : levels.descendingMap().values()) {
+        for (int i = 0; i < level.size(); i += size) {
+          List<Op> batch = new ArrayList<>();
+          for (String path : level.subList(i, Math.min(i + size, level.size()))) {
+            batch.add(Op.delete(path, -1));
+          }
+          pipeline.submit(batch);
+        }
+        pipeline.await();
+      }
+      // roots which were already gone, or znodes deleted by someone else since they were listed,
+      // aren't counted
+      return pipeline.applied();
+    } finally {
+      ZooKeeperClients.close(sessions);
+    }
+  }
+
+  /**
+   * List every znode below the given roots, except the {@code /zookeeper} subtree, by depth. Each
+   * level is listed with read-only {@code multi()} requests, each getting the children of a batch
+   * of the previous level's znodes, which is far faster than a request for each znode.
+   */
+  private static TreeMap<Integer, List<String>> list(List<ZooKeeper> sessions, List<String> roots,
+      int batchSize, int maxInFlight) throws MojoExecutionException {
+    TreeMap<Integer, List<String>> levels = new TreeMap<>();
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    AtomicReference<KeeperException> failure = new AtomicReference<>();
+    List<String> parents = roots;
+    int next = 0;
+    try {
+      for (int depth = 1; !parents.isEmpty(); depth++) {
+        List<String> children = Collections.synchronizedList(new ArrayList<>());
+        Phaser pending = new Phaser(1);
+        for (int i = 0; i < parents.size(); i += batchSize) {
+          List<String> batch = parents.subList(i, Math.min(i + batchSize, parents.size()));
+          List<Op> ops = new ArrayList<>(batch.size());
+          batch.forEach(path -> ops.add(Op.getChildren(path)));
+          inFlight.acquire();
+          pending.register();
+          ZooKeeper zk = sessions.get(next++ % sessions.size());
+          zk.multi(ops, (rc, path, ctx, results) -> {
+            try {
+              collect(batch, Code.get(rc), results, children, failure);
+            } finally {
+              inFlight.release();
+              pending.arriveAndDeregister();
+            }
+          }, null);
+        }
+        pending.arriveAndAwaitAdvance();
+        if (failure.get() != null) {
+          throw new MojoExecutionException("Unable to list znodes", failure.get());
+        }
+        parents = new ArrayList<>(children);
+        if (!parents.isEmpty()) {
+          levels.put(depth, parents);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("interrupted", e);
+    }
+    return levels;
+  }
+
+  private static void collect(List<String> parents, Code code, List<OpResult> results,
+      List<String> children, AtomicReference<KeeperException> failure) {
+    if (code != Code.OK) {
+      failure.compareAndSet(null, KeeperException.create(code));
+      return;
+    }
+    for (int i = 0; i < results.size(); i++) {
+      String parent = parents.get(i);
+      OpResult result = results.get(i);
+      if (result instanceof OpResult.GetChildrenResult) {
+        for (String child : ((OpResult.GetChildrenResult) result).getChildren()) {
+          String path = "/".equals(parent) ? "/" + child : parent + "/" + child;
+          if (!"/zookeeper".equals(path)) {
+            children.add(path);
+          }
+        }
+      } else if (result instanceof OpResult.ErrorResult) {
+        // a znode deleted by someone else since it was listed is skipped, but not other errors
+        Code err = Code.get(((OpResult.ErrorResult) result).getErr());
+        if (err != Code.NONODE) {
+          failure.compareAndSet(null, KeeperException.create(err, parent));
+        }
+      }
+    }
+  }
+
+}
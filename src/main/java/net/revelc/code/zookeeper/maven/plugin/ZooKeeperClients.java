@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.revelc.code.zookeeper.maven.plugin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.ZKClientConfig;
+
+/**
+ * Utility methods for the ZooKeeper client sessions opened by the plugin's goals.
+ */
+final class ZooKeeperClients {
+
+  static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+  private static final int SESSION_TIMEOUT_MILLIS = 30_000;
+
+  // sessions which own ephemeral nodes, kept open until the service is stopped
+  private static final ConcurrentHashMap<String, List<ZooKeeper>> retained =
+      new ConcurrentHashMap<>();
+
+  private ZooKeeperClients() {}
+
+  /**
+   * Open a session to the given connect string, waiting until it is connected.
+   */
+  static ZooKeeper connect(String connectString, long timeout, TimeUnit unit)
+      throws MojoExecutionException {
+    return connect(connectString, timeout, unit, new ZKClientConfig());
+  }
+
+  /**
+   * Open a session to the given connect string with the given client configuration, waiting until
+   * it is connected.
+   */
+  static ZooKeeper connect(String connectString, long timeout, TimeUnit unit,
+      ZKClientConfig clientConfig) throws MojoExecutionException {
+    CountDownLatch connected = new CountDownLatch(1);
+    ZooKeeper zk;
+    try {
+      zk = new ZooKeeper(connectString, SESSION_TIMEOUT_MILLIS, event -> {
+        if (event.getState() == KeeperState.SyncConnected) {
+          connected.countDown();
+        }
+      }, clientConfig);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to connect to ZooKeeper at " + connectString, e);
+    }
+    try {
+      if (!connected.await(timeout, unit)) {
+        close(zk);
+        throw new MojoExecutionException("Timed out connecting to ZooKeeper at " + connectString);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close(zk);
+      throw new MojoExecutionException("interrupted", e);
+    }
+    return zk;
+  }
+
+  /**
+   * Open several sessions to the given connect string, so requests can be spread across them.
+   */
+  static List<ZooKeeper> connect(String connectString, int count, long timeout, TimeUnit unit)
+      throws MojoExecutionException {
+    return connect(connectString, count, timeout, unit, new ZKClientConfig());
+  }
+
+  /**
+   * Open several sessions with the given client configuration, so requests can be spread across
+   * them.
+   */
+  static List<ZooKeeper> connect(String connectString, int count, long timeout, TimeUnit unit,
+      ZKClientConfig clientConfig) throws MojoExecutionException {
+    List<ZooKeeper> sessions = new ArrayList<>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        sessions.add(connect(connectString, timeout, unit, clientConfig));
+      }
+    } catch (MojoExecutionException e) {
+      close(sessions);
+      throw e;
+    }
+    return sessions;
+  }
+
+  /**
+   * Send one of ZooKeeper's four letter word commands, such as {@code srvr}, to the client port at
+   * the given address, returning the server's response. This needs no session, so it is the
+   * cheapest request a client can make.
+   */
+  static String fourLetterWord(String host, int port, String command, int timeoutMillis)
+      throws IOException {
+    return exchange(host, port, command, timeoutMillis);
+  }
+
+  /**
+   * Send a command, such as {@code status}, to the control channel of a forked server, on its
+   * shutdown port at the given address, returning the server's response. With a timeout of zero,
+   * the command is sent without waiting for the response, and an empty string is returned.
+   */
+  static String control(String host, int port, String command, int timeoutMillis)
+      throws IOException {
+    return exchange(host, port, command.trim() + "\n", timeoutMillis);
+  }
+
+  private static String exchange(String host, int port, String request, int timeoutMillis)
+      throws IOException {
+    try (Socket socket = new Socket()) {
+      socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+      OutputStream out = socket.getOutputStream();
+      out.write(request.getBytes(UTF_8));
+      out.flush();
+      if (timeoutMillis <= 0) {
+        return "";
+      }
+      socket.setSoTimeout(timeoutMillis);
+      // the server closes the connection once it has sent the whole response
+      return new String(socket.getInputStream().readAllBytes(), UTF_8);
+    }
+  }
+
+  /**
+   * Keep a session open after the current goal finishes, because it owns ephemeral nodes, until
+   * {@link #closeRetained(String)} is called for the same service.
+   */
+  static void retain(String key, ZooKeeper zk) {
+    retained.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(zk);
+  }
+
+  /**
+   * Close any sessions retained for the given service.
+   */
+  static void closeRetained(String key) {
+    List<ZooKeeper> sessions = retained.remove(key);
+    if (sessions != null) {
+      close(sessions);
+    }
+  }
+
+  static void close(List<ZooKeeper> sessions) {
+    // each close waits for the server to end the session, so end them all at once
+    List<Thread> closers = new ArrayList<>(sessions.size());
+    for (ZooKeeper zk : sessions) {
+      Thread closer = new Thread(() -> close(zk), "ZooKeeperSessionCloser");
+      closer.setDaemon(true);
+      closer.start();
+      closers.add(closer);
+    }
+    for (Thread closer : closers) {
+      try {
+        closer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  static void close(ZooKeeper zk) {
+    try {
+      zk.close();
+    } catch (InterruptedException e) {
+      // don't care
+    }
+  }
+
+}
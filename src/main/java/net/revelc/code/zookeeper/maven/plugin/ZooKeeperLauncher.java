@@ -17,24 +17,43 @@ package net.revelc.code.zookeeper.maven.plugin;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UncheckedIOException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import org.apache.zookeeper.metrics.impl.NullMetricsProvider;
+import java.util.stream.Stream;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZKUtil;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.DatadirCleanupManager;
+import org.apache.zookeeper.server.ServerCnxnFactory;
 import org.apache.zookeeper.server.ServerConfig;
+import org.apache.zookeeper.server.ZooKeeperServer;
 import org.apache.zookeeper.server.ZooKeeperServerMain;
+import org.apache.zookeeper.server.quorum.QuorumPeer;
+import org.apache.zookeeper.server.quorum.QuorumPeer.ServerState;
+import org.apache.zookeeper.server.quorum.QuorumPeerConfig;
 import org.apache.zookeeper.server.quorum.QuorumPeerConfig.ConfigException;
+import org.apache.zookeeper.server.quorum.QuorumPeerMain;
+import org.apache.zookeeper.util.ServiceUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,76 +64,116 @@ public final class ZooKeeperLauncher {
 
   private static final Logger log = LoggerFactory.getLogger(ZooKeeperLauncher.class);
 
-  private static class ShutdownListener implements Runnable {
-
-    private final String host;
-    private final int port;
-    private final String shutdownString;
-
-    public ShutdownListener(String host, int port, String shutdownString) {
-      this.host = host;
-      this.port = port;
-      this.shutdownString = shutdownString;
-    }
-
-    @Override
-    public void run() {
-      try (ServerSocket listener = new ServerSocket(port, 10, InetAddress.getByName(host))) {
-        while (true) {
-          Socket sock = listener.accept();
-          sock.setSoTimeout(5 * 1000);
-          try (Scanner scanner = new Scanner(sock.getInputStream(), UTF_8.name())) {
-            if (shutdownString.equals(scanner.nextLine())) {
-              try (OutputStream os = sock.getOutputStream();
-                  WritableByteChannel channel = Channels.newChannel(os)) {
-                channel.write(UTF_8.encode("done\r\n"));
-                os.flush();
-              } catch (IOException e) {
-                log.warn("Problem receiving shutdown message", e);
-              }
-              log.info("Received shutdown message");
-              break;
-            }
-          } catch (NoSuchElementException e) {
-            log.warn("Connection lost to unresponsive client", e);
-          }
-        }
-      } catch (IOException e) {
-        throw new UncheckedIOException(e);
-      }
-    }
-  }
-
-  private static final UncaughtExceptionHandler loggingExceptionHandler =
+  private final UncaughtExceptionHandler loggingExceptionHandler =
       new UncaughtExceptionHandler() {
         @Override
         public synchronized void uncaughtException(Thread thread, Throwable exception) {
           log.error("Uncaught exception in {}", thread, exception);
-          System.exit(1);
+          if (exitOnFailure) {
+            System.exit(1);
+          }
         }
       };
 
-  private static final class RunServer extends ZooKeeperServerMain implements Runnable {
+  private interface Server extends Runnable {
+
+    int getClientPort();
+
+    ZooKeeperServer getActiveServer();
+
+    boolean awaitServing(long timeout, TimeUnit unit) throws InterruptedException;
+
+    void shutdown();
+  }
+
+  private static final class RunServer extends ZooKeeperServerMain implements Server {
 
     private final ServerConfig config;
+    private final CountDownLatch serving = new CountDownLatch(1);
 
-    public RunServer(File zooCfg) {
-      config = new ServerConfig() {
-        @Override
-        public String getMetricsProviderClassName() {
-          return NullMetricsProvider.class.getName();
-        }
-      };
+    public RunServer(ServerConfig config) {
+      this.config = config;
+    }
+
+    @Override
+    public void shutdown() {
+      super.shutdown();
+    }
+
+    @Override
+    public ZooKeeperServer getActiveServer() {
+      try {
+        // ZooKeeperServerMain doesn't expose its connection factory, which knows the server
+        Field field = ZooKeeperServerMain.class.getDeclaredField("cnxnFactory");
+        field.setAccessible(true);
+        ServerCnxnFactory factory = (ServerCnxnFactory) field.get(this);
+        return factory == null ? null : factory.getZooKeeperServer();
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Unable to find the ZooKeeper server", e);
+      }
+    }
+
+    @Override
+    protected void serverStarted() {
+      // called once the client port is bound and the server is accepting requests
+      serving.countDown();
+    }
+
+    @Override
+    public boolean awaitServing(long timeout, TimeUnit unit) throws InterruptedException {
+      return serving.await(timeout, unit);
+    }
+
+    @Override
+    public void run() {
       try {
-        config.parse(zooCfg.getAbsolutePath());
-      } catch (ConfigException e) {
-        throw new IllegalArgumentException("Bad configuration file", e);
+        runFromConfig(config);
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
       }
     }
+  }
+
+  private static final class RunQuorumPeer extends QuorumPeerMain implements Server {
+
+    private final QuorumPeerConfig config;
+
+    public RunQuorumPeer(QuorumPeerConfig config) {
+      this.config = config;
+    }
 
     @Override
     public void shutdown() {
-      super.shutdown();
+      close();
+    }
+
+    @Override
+    public int getClientPort() {
+      QuorumPeer peer = quorumPeer;
+      return peer == null ? -1 : peer.getClientPort();
+    }
+
+    @Override
+    public ZooKeeperServer getActiveServer() {
+      QuorumPeer peer = quorumPeer;
+      return peer == null ? null : peer.getActiveServer();
+    }
+
+    @Override
+    public boolean awaitServing(long timeout, TimeUnit unit) throws InterruptedException {
+      // a peer serves requests once a leader is elected and it has synchronized with the leader
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (System.nanoTime() - deadline < 0) {
+        QuorumPeer peer = quorumPeer;
+        if (peer != null && peer.getPeerState() != ServerState.LOOKING) {
+          ZooKeeperServer zks = peer.getActiveServer();
+          if (zks != null && zks.isRunning()) {
+            return true;
+          }
+        }
+        Thread.sleep(10);
+      }
+      return false;
     }
 
     @Override
@@ -127,6 +186,41 @@ public final class ZooKeeperLauncher {
     }
   }
 
+  private static final class LauncherServerConfig extends ServerConfig {
+
+    void setClientPortAddress(InetSocketAddress address) {
+      clientPortAddress = address;
+    }
+  }
+
+  private Server createServer() {
+    QuorumPeerConfig config = new QuorumPeerConfig();
+    final long parseStarted = System.nanoTime();
+    try {
+      config.parse(zooCfg.getAbsolutePath());
+    } catch (ConfigException e) {
+      throw new IllegalArgumentException("Bad configuration file", e);
+    }
+    configParseNanos = System.nanoTime() - parseStarted;
+    if (config.getPurgeInterval() > 0) {
+      // QuorumPeerMain purges old snapshots and logs when it runs a server; the launcher runs one
+      // without it
+      purgeManager = new DatadirCleanupManager(config.getDataDir(), config.getDataLogDir(),
+          config.getSnapRetainCount(), config.getPurgeInterval());
+      purgeManager.start();
+    }
+    if (config.isDistributed()) {
+      return new RunQuorumPeer(config);
+    }
+    LauncherServerConfig serverConfig = new LauncherServerConfig();
+    serverConfig.readFrom(config);
+    if (serverConfig.getClientPortAddress() == null && clientPortAddress != null) {
+      // ZooKeeper treats a zero client port as unset, so an ephemeral port is requested here
+      serverConfig.setClientPortAddress(new InetSocketAddress(clientPortAddress, 0));
+    }
+    return new RunServer(serverConfig);
+  }
+
   /**
    * Launch ZooKeeper with the provided arguments.
    */
@@ -134,51 +228,471 @@ public final class ZooKeeperLauncher {
     parseArgs(args);
   }
 
-  private void execute() {
+  /**
+   * Start the ZooKeeper server and the shutdown listener, each in their own daemon thread. When not
+   * running in its own process, ZooKeeper's requests to exit the JVM on fatal errors are logged
+   * and recorded instead, and shut the server down, until it has stopped.
+   */
+  public void start() {
+    if (!exitOnFailure) {
+      ServiceUtils.setSystemExitProcedure(this::fatalExit);
+      exitProcedureInstalled = true;
+    }
+    try {
+      controlChannel = new ControlChannel(host, port, shutdownString, this::control,
+          shutdownRequested::countDown);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to listen on shutdown port " + port, e);
+    }
+    final Thread controlThread = new Thread(controlChannel, "ControlChannel");
+    final List<Thread> threads = new ArrayList<>();
+    threads.add(controlThread);
+    if (proxyPort >= 0) {
+      // relay to the address clients would otherwise connect to
+      String serverHost = clientPortAddress == null || "0.0.0.0".equals(clientPortAddress)
+          ? InetAddress.getLoopbackAddress().getHostAddress()
+          : clientPortAddress;
+      try {
+        proxy = new FaultProxy(clientPortAddress, proxyPort, serverHost, this::getClientPort,
+            FaultProxy.Faults.NONE.with(proxyFaults));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to listen on proxy port " + proxyPort, e);
+      }
+      threads.add(new Thread(proxy, "FaultProxy"));
+    }
 
-    Thread shutdownThread =
-        new Thread(new ShutdownListener(host, port, shutdownString), "ShutdownListener");
+    server = createServer();
+    serverThread = new Thread(server, "ZooKeeperServerThread");
 
-    RunServer server = new RunServer(zooCfg);
-    Thread serverThread = new Thread(server, "ZooKeeperServerThread");
+    threads.add(serverThread);
 
-    for (Thread t : new Thread[] {shutdownThread, serverThread}) {
+    serverThreadStarted = System.nanoTime();
+    for (Thread t : threads) {
       t.setDaemon(true);
       t.setUncaughtExceptionHandler(loggingExceptionHandler);
       t.start();
     }
+  }
+
+  /**
+   * Wait for the server to start serving requests. Returns false if the timeout elapsed first, or
+   * if the server stopped or was asked to shut down before it started serving.
+   */
+  public boolean awaitServing(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!server.awaitServing(100, TimeUnit.MILLISECONDS)) {
+      if (shutdownRequested.getCount() == 0 || !serverThread.isAlive()
+          || System.nanoTime() - deadline > 0) {
+        return false;
+      }
+    }
+    if (servingSince == 0) {
+      servingSince = System.nanoTime();
+    }
+    return true;
+  }
+
+  /**
+   * The time, in milliseconds, taken by each phase of starting the server, in the order they
+   * happened, once it is serving. The time to load the snapshot and transaction logs is only known
+   * when the metrics provider records ZooKeeper's {@code dbinittime} summary, as the default
+   * provider does.
+   */
+  public Map<String, Double> getStartupPhases() {
+    Map<String, Double> phases = new LinkedHashMap<>();
+    if (jvmStartToMainMillis >= 0) {
+      phases.put("jvmStartToMain", (double) jvmStartToMainMillis);
+    }
+    phases.put("configParse", StartupReport.millis(configParseNanos));
+    long replayMillis = dataReplayMillis();
+    long replayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(replayMillis, 0));
+    // a standalone server is created, binds the client port, loads its data, and starts its
+    // threads, while a peer loads its data, then joins the ensemble once a leader is elected
+    phases.put(server instanceof RunQuorumPeer ? "quorumJoin" : "serverStartup",
+        StartupReport.millis(servingSince - serverThreadStarted - replayNanos));
+    if (replayMillis >= 0) {
+      phases.put("dataReplay", (double) replayMillis);
+    }
+    return phases;
+  }
+
+  private static long dataReplayMillis() {
+    Object replay;
+    try {
+      replay = MetricsReport.values().get("sum_dbinittime");
+    } catch (RuntimeException e) {
+      log.debug("Unable to read metrics", e);
+      return -1;
+    }
+    return replay instanceof Number ? ((Number) replay).longValue() : -1;
+  }
+
+  /**
+   * The port on which the server accepts client connections, which is only known for certain once
+   * it is serving when an ephemeral port was requested.
+   */
+  public int getClientPort() {
+    return server.getClientPort();
+  }
+
+  /**
+   * The port on which the control channel accepts the shutdown string and other commands.
+   */
+  public int getShutdownPort() {
+    return controlChannel.getLocalPort();
+  }
+
+  /**
+   * The port on which the fault injecting proxy accepts client connections, or -1 if there is no
+   * proxy.
+   */
+  public int getProxyPort() {
+    return proxy == null ? -1 : proxy.getLocalPort();
+  }
+
+  /**
+   * Close every client session known to the server, as if it had expired, so that its ephemeral
+   * nodes and watches are removed. Returns the number of sessions closed.
+   */
+  public int closeSessions() {
+    ZooKeeperServer zks = server.getActiveServer();
+    if (zks == null) {
+      return 0;
+    }
+    Set<Long> sessionIds = new HashSet<>();
+    zks.getSessionTracker().getSessionExpiryMap().values().forEach(sessionIds::addAll);
+    sessionIds.forEach(zks::closeSession);
+    return sessionIds.size();
+  }
 
-    // let the plugin know the forked process successfully started
-    if (token != null) {
-      tokenEmitter.println("Started ZooKeeper (Token: " + token + ")");
+  /**
+   * Run a command received by the control channel, returning its response.
+   */
+  private String control(String command) {
+    String[] words = command.split("\\s+");
+    ZooKeeperServer zks = server.getActiveServer();
+    switch (words[0]) {
+      case "status":
+        if (zks == null || !zks.isRunning()) {
+          return "state=starting";
+        }
+        return "state=" + zks.getState() + " clientPort=" + getClientPort() + " connections="
+            + zks.getNumAliveConnections() + " sessions=" + zks.getZKDatabase().getSessionCount()
+            + " znodes=" + zks.getZKDatabase().getNodeCount() + " zxid=0x"
+            + Long.toHexString(zks.getZKDatabase().getDataTreeLastProcessedZxid());
+      case "stats":
+        StringBuilder stats = new StringBuilder();
+        MetricsReport.values().forEach((name, value) -> stats
+            .append(stats.length() == 0 ? "" : "\n").append(name).append(' ').append(value));
+        return stats.toString();
+      case "snapshot":
+        if (zks == null) {
+          return "error: not serving";
+        }
+        try {
+          return "snapshot " + zks.takeSnapshot(true).getAbsolutePath();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      case "close-sessions":
+        return "closed " + closeSessions();
+      case "reset":
+        if (zks == null || !zks.isRunning()) {
+          return "error: not serving";
+        }
+        return "deleted " + reset(zks.getServerCnxnFactory().getLocalAddress());
+      case "proxy":
+        if (proxy == null) {
+          return "error: the proxy is not enabled";
+        }
+        return proxy.control(command.trim().substring("proxy".length()));
+      case "log-level":
+        if (words.length < 2 || words.length > 3) {
+          return "error: expected log-level <level> [logger]";
+        }
+        return SimpleLoggerLevels.set(words.length == 3 ? words[2] : "", words[1]);
+      default:
+        return "error: unknown command '" + words[0]
+            + "'; expected status, stats, snapshot, reset, close-sessions, log-level, or proxy";
     }
+  }
 
+  /**
+   * Delete every znode, except for ZooKeeper's own, through a session on the given client address,
+   * so that the deletes are logged like any other. Returns the number of top-level znodes deleted.
+   */
+  private static int reset(InetSocketAddress address) {
+    String host = address.getAddress().isAnyLocalAddress()
+        ? InetAddress.getLoopbackAddress().getHostAddress()
+        : address.getAddress().getHostAddress();
+    CountDownLatch connected = new CountDownLatch(1);
     try {
-      // wait for shutdown thread to receive shutdown message
-      shutdownThread.join();
+      ZooKeeper zk = new ZooKeeper(host + ":" + address.getPort(), 30_000, event -> {
+        if (event.getState() == KeeperState.SyncConnected) {
+          connected.countDown();
+        }
+      });
+      try {
+        if (!connected.await(30, TimeUnit.SECONDS)) {
+          throw new IllegalStateException("Unable to connect to " + address);
+        }
+        int deleted = 0;
+        for (String child : zk.getChildren("/", false)) {
+          if (!"zookeeper".equals(child)) {
+            if (!ZKUtil.deleteRecursive(zk, "/" + child, 1000)) {
+              throw new IllegalStateException("Unable to delete all of /" + child);
+            }
+            deleted++;
+          }
+        }
+        return deleted;
+      } finally {
+        zk.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (KeeperException e) {
+      throw new IllegalStateException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void fatalExit(int code) {
+    log.error("ZooKeeper requested to exit with code {}; shutting down instead", code);
+    fatalExitCode = code;
+    shutdown();
+  }
+
+  /**
+   * The code ZooKeeper requested to exit the JVM with, following a fatal error, or -1 if it hasn't.
+   */
+  public int getFatalExitCode() {
+    return fatalExitCode;
+  }
+
+  /**
+   * Request a shutdown directly, as if the shutdown string had been received.
+   */
+  public void shutdown() {
+    shutdownRequested.countDown();
+  }
 
-      // attempt a safe shutdown, but kill it after 5 seconds
+  /**
+   * Wait for a shutdown to be requested, then attempt a safe shutdown of the server. Returns true
+   * if the server stopped within the given timeout.
+   */
+  public boolean awaitShutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    shutdownRequested.await();
+    try {
+      controlChannel.close();
+      if (proxy != null) {
+        proxy.close();
+      }
+      if (purgeManager != null) {
+        purgeManager.shutdown();
+      }
+      writeMetricsReport();
+      snapshotOnShutdown();
       server.shutdown();
-      serverThread.join(TimeUnit.SECONDS.toMillis(5));
+      serverThread.join(unit.toMillis(timeout));
+      deleteDataDir();
+      return !serverThread.isAlive();
+    } finally {
+      if (exitProcedureInstalled) {
+        ServiceUtils.setSystemExitProcedure(ServiceUtils.SYSTEM_EXIT);
+        exitProcedureInstalled = false;
+      }
+    }
+  }
+
+  /**
+   * Write a snapshot of the current state, if it is kept for the next server, so that the next
+   * server doesn't replay the transactions logged since the last one.
+   */
+  private void snapshotOnShutdown() {
+    ZooKeeperServer zks = server.getActiveServer();
+    if (!snapshotOnShutdown || zks == null || !zks.isRunning()) {
+      return;
+    }
+    try {
+      log.info("Wrote snapshot {}", zks.takeSnapshot(true));
+    } catch (IOException | RuntimeException e) {
+      log.warn("Problem writing snapshot on shutdown", e);
+    }
+  }
+
+  private void writeMetricsReport() {
+    if (metricsDir == null) {
+      return;
+    }
+    try {
+      int written = MetricsReport.write(metricsDir);
+      log.info("Wrote {} metrics to {}", written, metricsDir);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Problem writing metrics report to {}", metricsDir, e);
+    }
+  }
+
+  private void deleteDataDir() {
+    if (deleteOnShutdown == null || !deleteOnShutdown.exists()) {
+      return;
+    }
+    try (Stream<Path> walk = Files.walk(deleteOnShutdown.toPath())) {
+      walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    } catch (IOException | UncheckedIOException e) {
+      log.warn("Problem deleting data directory {}", deleteOnShutdown, e);
+    }
+  }
+
+  /**
+   * Watch for the parent process to exit, and for the server to be idle, requesting a shutdown
+   * when either happens, so that a launcher doesn't outlive a build which never stopped it.
+   */
+  private void startWatchdog() {
+    if (parentPid > 0) {
+      Optional<ProcessHandle> parent = ProcessHandle.of(parentPid);
+      if (parent.isPresent()) {
+        parent.get().onExit().thenRun(() -> {
+          log.warn("Shutting down, because parent process {} exited", parentPid);
+          shutdown();
+        });
+      } else {
+        log.warn("Shutting down, because parent process {} is not running", parentPid);
+        shutdown();
+      }
+    }
+    if (idleTimeoutSeconds > 0) {
+      Thread idleWatcher = new Thread(this::watchIdle, "IdleWatcher");
+      idleWatcher.setDaemon(true);
+      idleWatcher.start();
+    }
+  }
+
+  /**
+   * Request a shutdown once the server has had no client connections or sessions for the idle
+   * timeout.
+   */
+  private void watchIdle() {
+    long idleSince = System.nanoTime();
+    long timeout = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+    try {
+      while (!shutdownRequested.await(1, TimeUnit.SECONDS)) {
+        ZooKeeperServer zks = server.getActiveServer();
+        long now = System.nanoTime();
+        if (zks == null || zks.getNumAliveConnections() > 0
+            || zks.getZKDatabase().getSessionCount() > 0) {
+          idleSince = now;
+        } else if (now - idleSince > timeout) {
+          log.warn("Shutting down, because no clients have been connected for {} seconds",
+              idleTimeoutSeconds);
+          shutdown();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void execute() {
+    exitOnFailure = true;
+    start();
+    startWatchdog();
+
+    boolean stopped;
+    try {
+      // wait until the server is actually serving requests before reporting back to the plugin
+      if (awaitServing(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+        // let the plugin know the forked process successfully started
+        if (token != null) {
+          tokenEmitter.println("Started ZooKeeper (Token: " + token + ", clientPort: "
+              + getClientPort() + ", shutdownPort: " + getShutdownPort()
+              + (proxy == null ? "" : ", proxyPort: " + getProxyPort()) + ", phases: "
+              + StartupReport.formatPhases(getStartupPhases()) + ")");
+        }
+      } else {
+        log.warn("Shutdown requested before ZooKeeper started serving");
+      }
+
+      if (ephemeral) {
+        // nothing needs to survive, so exit without shutting down ZooKeeper's components
+        shutdownRequested.await();
+        log.info("Exiting without an orderly shutdown, because durability is ephemeral");
+        writeMetricsReport();
+        snapshotOnShutdown();
+        deleteDataDir();
+        closeLogFiles();
+        Runtime.getRuntime().halt(0);
+      }
+
+      // wait for a shutdown message, then attempt a safe shutdown, but kill it after 5 seconds
+      stopped = awaitShutdown(5, TimeUnit.SECONDS);
     } catch (InterruptedException e) {
       throw new IllegalStateException(e);
     }
 
-    if (serverThread.isAlive()) {
-      log.warn("ZooKeeper did not shut down for 5 seconds. Forcing exit...");
-      System.exit(1);
-    } else {
+    if (stopped) {
       log.info("ZooKeeper shut down successfully.");
       System.exit(0);
+    } else {
+      log.warn("ZooKeeper did not shut down for 5 seconds. Forcing exit...");
+      System.exit(1);
     }
   }
 
+  private final CountDownLatch shutdownRequested = new CountDownLatch(1);
+  private volatile boolean exitOnFailure = false;
+  private boolean exitProcedureInstalled = false;
+  private volatile int fatalExitCode = -1;
+  private ControlChannel controlChannel;
+  private FaultProxy proxy;
+  private DatadirCleanupManager purgeManager;
+  private Server server;
+  private Thread serverThread;
+  private long jvmStartToMainMillis = -1;
+  private long configParseNanos;
+  private long serverThreadStarted;
+  private volatile long servingSince;
+
+  private final List<AsyncFileOutputStream> logFiles = new ArrayList<>();
   private PrintStream tokenEmitter = System.err;
   private String token = null;
   private String shutdownString = null;
-  private int port = 0;
+  private int port = -1;
   private File zooCfg = null;
   private String host = null;
+  private String clientPortAddress = null;
+  private boolean ephemeral = false;
+  private boolean snapshotOnShutdown = false;
+  private File deleteOnShutdown = null;
+  private File metricsDir = null;
+  private int proxyPort = -1;
+  private long parentPid = -1;
+  private long idleTimeoutSeconds = 0;
+  private String proxyFaults = "";
+
+  private OutputStream logFile(String dir, String name) throws IOException {
+    AsyncFileOutputStream stream = new AsyncFileOutputStream(new File(dir, name), name + "Writer");
+    if (logFiles.isEmpty()) {
+      Runtime.getRuntime().addShutdownHook(new Thread(this::closeLogFiles, "LogFileCloser"));
+    }
+    logFiles.add(stream);
+    return stream;
+  }
+
+  /**
+   * Write out everything logged so far, which a halt, unlike an exit, would otherwise lose.
+   */
+  private void closeLogFiles() {
+    for (AsyncFileOutputStream stream : logFiles) {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        // nowhere left to report it
+      }
+    }
+  }
 
   private void parseArgs(String[] args) {
     boolean nextIsLogDir = false;
@@ -187,13 +701,18 @@ public final class ZooKeeperLauncher {
     boolean nextIsShutdownPort = false;
     boolean nextIsHost = false;
     boolean nextIsZooCfg = false;
+    boolean nextIsClientPortAddress = false;
+    boolean nextIsDeleteOnShutdown = false;
+    boolean nextIsMetricsDir = false;
+    boolean nextIsProxyPort = false;
+    boolean nextIsProxyFaults = false;
+    boolean nextIsParentPid = false;
+    boolean nextIsIdleTimeout = false;
     for (String arg : args) {
       if (nextIsLogDir) {
         try {
-          System.setErr(
-              new PrintStream(new FileOutputStream(arg + "/zkServer.stderr"), true, UTF_8.name()));
-          System.setOut(
-              new PrintStream(new FileOutputStream(arg + "/zkServer.stdout"), true, UTF_8.name()));
+          System.setErr(new PrintStream(logFile(arg, "zkServer.stderr"), false, UTF_8.name()));
+          System.setOut(new PrintStream(logFile(arg, "zkServer.stdout"), false, UTF_8.name()));
         } catch (IOException e) {
           throw new UncheckedIOException(e);
         }
@@ -207,6 +726,24 @@ public final class ZooKeeperLauncher {
         host = arg;
       } else if (nextIsZooCfg) {
         zooCfg = new File(arg);
+      } else if (nextIsClientPortAddress) {
+        clientPortAddress = arg;
+      } else if (nextIsDeleteOnShutdown) {
+        deleteOnShutdown = new File(arg);
+      } else if (nextIsMetricsDir) {
+        metricsDir = new File(arg);
+      } else if (nextIsProxyPort) {
+        proxyPort = Integer.parseInt(arg);
+      } else if (nextIsProxyFaults) {
+        proxyFaults = arg;
+      } else if (nextIsParentPid) {
+        parentPid = Long.parseLong(arg);
+      } else if (nextIsIdleTimeout) {
+        idleTimeoutSeconds = Long.parseLong(arg);
+      } else if ("--ephemeral".equals(arg)) {
+        ephemeral = true;
+      } else if ("--snapshotOnShutdown".equals(arg)) {
+        snapshotOnShutdown = true;
       }
       nextIsLogDir = "--logdir".equals(arg);
       nextIsToken = "--token".equals(arg);
@@ -214,10 +751,18 @@ public final class ZooKeeperLauncher {
       nextIsShutdownPort = "--shutdownPort".equals(arg);
       nextIsHost = "--host".equals(arg);
       nextIsZooCfg = "--zoocfg".equals(arg);
+      nextIsClientPortAddress = "--clientPortAddress".equals(arg);
+      nextIsDeleteOnShutdown = "--deleteOnShutdown".equals(arg);
+      nextIsMetricsDir = "--metricsDir".equals(arg);
+      nextIsProxyPort = "--proxyPort".equals(arg);
+      nextIsProxyFaults = "--proxyFaults".equals(arg);
+      nextIsParentPid = "--parentPid".equals(arg);
+      nextIsIdleTimeout = "--idleTimeout".equals(arg);
     }
 
-    if (port < 1) {
-      throw new IllegalArgumentException("Must specify port greater than 0");
+    // a zero port is allowed, and selects any free port
+    if (port < 0) {
+      throw new IllegalArgumentException("Must specify port of 0 or greater");
     }
   }
 
@@ -227,6 +772,9 @@ public final class ZooKeeperLauncher {
    * to exit.
    */
   public static void main(String[] args) {
-    new ZooKeeperLauncher(args).execute();
+    long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+    ZooKeeperLauncher launcher = new ZooKeeperLauncher(args);
+    launcher.jvmStartToMainMillis = uptime;
+    launcher.execute();
   }
 }